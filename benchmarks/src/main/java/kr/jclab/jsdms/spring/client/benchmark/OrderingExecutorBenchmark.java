@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.benchmark;
+
+import kr.jclab.jsdms.spring.client.internal.OrderingExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submit throughput and submit latency percentiles of the synchronized and the lock-free OrderingExecutor.
+ *
+ * Build the client first (mvn install -DskipTests -Dgpg.skip -Dmaven.javadoc.skip), then
+ * mvn package in this directory and run java -jar target/benchmarks.jar.
+ *
+ * In-flight tasks are bounded by a semaphore so the throughput measured is what the executor can sustain,
+ * not how fast an unbounded backlog grows.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderingExecutorBenchmark {
+    private static final int MAX_IN_FLIGHT = 4096;
+
+    public interface KeyedExecutor {
+        void execute(Runnable task, Object key);
+    }
+
+    @Param({"legacy", "lockfree"})
+    public String implementation;
+
+    @Param({"1", "8", "64"})
+    public int keyCount;
+
+    private ExecutorService executorService;
+    private KeyedExecutor executor;
+    private Object[] keys;
+    private Semaphore inFlight;
+    private Runnable task;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+        if ("legacy".equals(implementation)) {
+            executor = new LegacyOrderingExecutor(executorService)::execute;
+        } else {
+            executor = new OrderingExecutor(executorService)::execute;
+        }
+        keys = new Object[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = new Object();
+        }
+        inFlight = new Semaphore(MAX_IN_FLIGHT);
+        task = inFlight::release;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        inFlight.acquire(MAX_IN_FLIGHT);
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void submit() throws InterruptedException {
+        inFlight.acquire();
+        executor.execute(task, keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void submit1Thread() throws InterruptedException {
+        submit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void submit4Threads() throws InterruptedException {
+        submit();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void submit16Threads() throws InterruptedException {
+        submit();
+    }
+}
@@ -15,10 +15,15 @@
  */
 package kr.jclab.jsdms.spring.client;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import kr.jclab.jsdms.spring.client.internal.MicrometerSyncMetrics;
 import kr.jclab.jsdms.spring.client.internal.ServiceImpl;
+import kr.jclab.jsdms.spring.client.internal.SyncMetrics;
 import kr.jclab.jsdms.spring.client.service.JsDMSSpringClientService;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -32,11 +37,14 @@ import javax.annotation.PreDestroy;
 public class JsDMSSpringClientConfiguration implements BeanPostProcessor {
     @Autowired
     private JsDMSSpringClientProperties properties;
+    // a provider, so injecting this post processor does not create the metrics and the MeterRegistry behind them
+    @Autowired
+    private ObjectProvider<SyncMetrics> syncMetrics;
     private ServiceImpl service;
 
     @PostConstruct
     protected void init() {
-        service = new ServiceImpl(properties);
+        service = new ServiceImpl(properties, syncMetrics.getIfAvailable(() -> SyncMetrics.NOOP));
     }
 
     @ConditionalOnMissingBean
@@ -52,4 +60,18 @@ public class JsDMSSpringClientConfiguration implements BeanPostProcessor {
             this.service = null;
         }
     }
+
+    /**
+     * Only loaded if Micrometer is on the classpath, it is an optional dependency.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class MicrometerConfiguration {
+        @ConditionalOnMissingBean
+        @Bean
+        public SyncMetrics jsdmsSyncMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+            MeterRegistry registry = meterRegistry.getIfAvailable();
+            return (registry != null) ? new MicrometerSyncMetrics(registry) : SyncMetrics.NOOP;
+        }
+    }
 }
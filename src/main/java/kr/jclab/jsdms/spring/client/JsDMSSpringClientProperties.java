@@ -28,6 +28,7 @@ import java.util.List;
 public class JsDMSSpringClientProperties {
     public static class ZookeeperProperties {
         private String connectString;
+        private String watcher = "zkclient";
 
         public String getConnectString() {
             return connectString;
@@ -36,12 +37,458 @@ public class JsDMSSpringClientProperties {
         public void setConnectString(String connectString) {
             this.connectString = connectString;
         }
+
+        /**
+         * How status nodes are watched.
+         * "zkclient" (default) subscribes to every child node,
+         * "tree-cache" keeps one Curator TreeCache per repository root with a local mirror of the node data.
+         */
+        public String getWatcher() {
+            return watcher;
+        }
+
+        public void setWatcher(String watcher) {
+            this.watcher = watcher;
+        }
+    }
+
+    public static class PollingProperties {
+        private long minInterval = 10000;
+        private long maxInterval = 300000;
+        private double jitter = 0.2;
+        private int maxConcurrentChecks = 4;
+
+        /**
+         * Milliseconds between checks of a target whose refs just moved.
+         */
+        public long getMinInterval() {
+            return minInterval;
+        }
+
+        public void setMinInterval(long minInterval) {
+            this.minInterval = minInterval;
+        }
+
+        /**
+         * Milliseconds the interval of an idle target doubles up to.
+         */
+        public long getMaxInterval() {
+            return maxInterval;
+        }
+
+        public void setMaxInterval(long maxInterval) {
+            this.maxInterval = maxInterval;
+        }
+
+        /**
+         * Fraction every delay is randomly shortened or lengthened by, 0 to 1.
+         */
+        public double getJitter() {
+            return jitter;
+        }
+
+        public void setJitter(double jitter) {
+            this.jitter = jitter;
+        }
+
+        /**
+         * Number of ref advertisement checks running at once over all targets.
+         */
+        public int getMaxConcurrentChecks() {
+            return maxConcurrentChecks;
+        }
+
+        public void setMaxConcurrentChecks(int maxConcurrentChecks) {
+            this.maxConcurrentChecks = maxConcurrentChecks;
+        }
+    }
+
+    public static class FetchAdmissionProperties {
+        private int maxConcurrent = 0;
+        private long startDelay = 0;
+        private long acquireTimeout = 300000;
+
+        /**
+         * Nodes of the cluster transferring one repository from the git server at a time, coordinated through ZooKeeper.
+         * 0 (default) does not coordinate.
+         */
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        /**
+         * Upper bound in milliseconds of the random delay before a noticed change or the startup download is queued. 0 (default) starts at once.
+         */
+        public long getStartDelay() {
+            return startDelay;
+        }
+
+        public void setStartDelay(long startDelay) {
+            this.startDelay = startDelay;
+        }
+
+        /**
+         * Milliseconds a node waits for its turn before it transfers anyway.
+         */
+        public long getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(long acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+    }
+
+    public static class PeerProperties {
+        private boolean enabled = false;
+        private String host = null;
+        private int port = 0;
+        private int timeout = 30000;
+        private int retainedBundles = 3;
+        private String secret = null;
+
+        /**
+         * true: one node per repository, elected through ZooKeeper, downloads from the git server and the others copy from it.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Address the other nodes reach this node's bundles at, the HTTP server only listens on it.
+         * Default is the local host address, and the server listens on all interfaces.
+         */
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Port of the HTTP server the bundles are served from. 0 (default) picks a free port.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        /**
+         * Connect and read timeout in milliseconds of a bundle download.
+         */
+        public int getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        /**
+         * Bundles per repository and branch kept served after a newer one was advertised.
+         */
+        public int getRetainedBundles() {
+            return retainedBundles;
+        }
+
+        public void setRetainedBundles(int retainedBundles) {
+            this.retainedBundles = retainedBundles;
+        }
+
+        /**
+         * Shared by all nodes, a bundle is only served to requests that carry it. Required, peer mode does not start without it.
+         */
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+    }
+
+    public static class MaintenanceProperties {
+        private boolean enabled = false;
+        private long interval = 3600000;
+        private long idleTime = 300000;
+        private int looseObjects = 6700;
+        private int packFiles = 50;
+        private long looseSize = 104857600;
+        private long pruneExpire = 1209600000;
+
+        /**
+         * true: gc the repositories of idle targets that exceed a threshold.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Milliseconds between looks for idle targets.
+         */
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        /**
+         * Milliseconds without a sync after which a target counts as idle.
+         */
+        public long getIdleTime() {
+            return idleTime;
+        }
+
+        public void setIdleTime(long idleTime) {
+            this.idleTime = idleTime;
+        }
+
+        /**
+         * Loose objects of a repository above which it is collected.
+         */
+        public int getLooseObjects() {
+            return looseObjects;
+        }
+
+        public void setLooseObjects(int looseObjects) {
+            this.looseObjects = looseObjects;
+        }
+
+        /**
+         * Pack files of a repository above which it is collected. A gc leaves up to two packs, one for branches and one for other refs.
+         */
+        public int getPackFiles() {
+            return packFiles;
+        }
+
+        public void setPackFiles(int packFiles) {
+            this.packFiles = packFiles;
+        }
+
+        /**
+         * Bytes of loose objects of a repository above which it is collected.
+         */
+        public long getLooseSize() {
+            return looseSize;
+        }
+
+        public void setLooseSize(long looseSize) {
+            this.looseSize = looseSize;
+        }
+
+        /**
+         * Age in milliseconds an unreachable loose object must have before a gc prunes it.
+         */
+        public long getPruneExpire() {
+            return pruneExpire;
+        }
+
+        public void setPruneExpire(long pruneExpire) {
+            this.pruneExpire = pruneExpire;
+        }
+    }
+
+    public static class EvictionProperties {
+        private boolean enabled = false;
+        private long gracePeriod = 600000;
+        private long staleTime = 0;
+        private long interval = 600000;
+
+        /**
+         * true: remove the directories of deploy branches whose status node or remote ref was deleted, or that went stale.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Milliseconds a branch is kept after its removal was requested. It stays if it shows up again meanwhile.
+         */
+        public long getGracePeriod() {
+            return gracePeriod;
+        }
+
+        public void setGracePeriod(long gracePeriod) {
+            this.gracePeriod = gracePeriod;
+        }
+
+        /**
+         * Milliseconds without a sync, a read or a snapshot taken after which a branch is removed, 0 keeps unused branches.
+         * A stale branch comes back with its next change or a triggerSync.
+         */
+        public long getStaleTime() {
+            return staleTime;
+        }
+
+        public void setStaleTime(long staleTime) {
+            this.staleTime = staleTime;
+        }
+
+        /**
+         * Milliseconds between looks for stale branches.
+         */
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class ExecutorProperties {
+        private int poolSize = 2;
+        private int queueCapacity = 10000;
+        private String overflowPolicy = "discard";
+        private long retryDelay = 10000;
+
+        /**
+         * Number of threads running clone, fetch, pull and ZooKeeper reads for all targets.
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        /**
+         * Maximum number of queued and running sync tasks.
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * What happens to a task submitted while the queue is full.
+         * "discard" (default) drops and counts it, "abort" throws a RejectedExecutionException to the submitter.
+         */
+        public String getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(String overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        /**
+         * Milliseconds after which the pull of a noticed change, dropped because the queue was full, is queued again.
+         */
+        public long getRetryDelay() {
+            return retryDelay;
+        }
+
+        public void setRetryDelay(long retryDelay) {
+            this.retryDelay = retryDelay;
+        }
+    }
+
+    public static class SshProperties {
+        private boolean sessionPool = false;
+        private long sessionIdleTimeout = 60000;
+
+        /**
+         * Keep authenticated ssh sessions per (user, host, port) and open a new channel for every git command.
+         */
+        public boolean isSessionPool() {
+            return sessionPool;
+        }
+
+        public void setSessionPool(boolean sessionPool) {
+            this.sessionPool = sessionPool;
+        }
+
+        /**
+         * Milliseconds an unused pooled session is kept connected.
+         */
+        public long getSessionIdleTimeout() {
+            return sessionIdleTimeout;
+        }
+
+        public void setSessionIdleTimeout(long sessionIdleTimeout) {
+            this.sessionIdleTimeout = sessionIdleTimeout;
+        }
+    }
+
+    public static class HandlerProperties {
+        private int poolSize = 2;
+        private long timeout = 30000;
+
+        /**
+         * Number of threads calling the repository change handlers, separate from the sync threads.
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        /**
+         * Milliseconds a handler may take for one change before it is reported as slow.
+         * It is not interrupted, its later changes of the same branch wait for it.
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class BlobCacheProperties {
+        private long maxSize = 32 * 1024 * 1024;
+
+        /**
+         * Bytes of inflated file contents kept in memory for the read API, shared by all targets.
+         */
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
     }
 
     public static class TargetProperties {
         private String name;
         private String type;
         private String resourceDirectory;
+        private String storageMode = "copy";
+        private String fetchScope = "all";
+        private String syncMode = "branch";
+        private String publishMode = "in-place";
+        private int weight = 1;
 
         private String gitUri;
         private Integer gitPort;
@@ -59,6 +506,10 @@ public class JsDMSSpringClientProperties {
             this.name = name;
         }
 
+        /**
+         * "git-repo" checks out a working tree per deploy branch,
+         * "bare" keeps only the object database and is read through the read API of the service.
+         */
         public String getType() {
             return type;
         }
@@ -75,6 +526,69 @@ public class JsDMSSpringClientProperties {
             this.resourceDirectory = resourceDirectory;
         }
 
+        /**
+         * How each deploy branch directory gets its objects.
+         * "copy" (default) copies the whole master directory,
+         * "shared" makes a lightweight checkout that borrows the master object store through git alternates.
+         */
+        public String getStorageMode() {
+            return storageMode;
+        }
+
+        public void setStorageMode(String storageMode) {
+            this.storageMode = storageMode;
+        }
+
+        /**
+         * Which remote refs are cloned and fetched.
+         * "all" (default) clones every branch and tag,
+         * "deploy" clones and fetches only master and deploy-* branches without tags.
+         */
+        public String getFetchScope() {
+            return fetchScope;
+        }
+
+        public void setFetchScope(String fetchScope) {
+            this.fetchScope = fetchScope;
+        }
+
+        /**
+         * How branch changes are pulled.
+         * "branch" (default) pulls every changed branch from the remote on its own,
+         * "batched" fetches all deploy-* refs of the target at once and updates the branches that moved from local objects.
+         */
+        public String getSyncMode() {
+            return syncMode;
+        }
+
+        public void setSyncMode(String syncMode) {
+            this.syncMode = syncMode;
+        }
+
+        /**
+         * How synced branches are handed to readers.
+         * "in-place" (default) updates {resource-directory}/{repo}/{branch} directly,
+         * "snapshot" writes every commit into a new immutable directory and atomically swaps the {branch} symbolic link to it.
+         */
+        public String getPublishMode() {
+            return publishMode;
+        }
+
+        public void setPublishMode(String publishMode) {
+            this.publishMode = publishMode;
+        }
+
+        /**
+         * Share of the sync threads this target gets while other targets also have work, relative to their weights.
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
         public String getGitUri() {
             return gitUri;
         }
@@ -126,8 +640,22 @@ public class JsDMSSpringClientProperties {
 
     private String source;
     private ZookeeperProperties zookeeper;
+    private PollingProperties polling = new PollingProperties();
+    private FetchAdmissionProperties fetchAdmission = new FetchAdmissionProperties();
+    private PeerProperties peer = new PeerProperties();
+    private MaintenanceProperties maintenance = new MaintenanceProperties();
+    private EvictionProperties eviction = new EvictionProperties();
+    private ExecutorProperties executor = new ExecutorProperties();
+    private SshProperties ssh = new SshProperties();
+    private HandlerProperties handler = new HandlerProperties();
+    private BlobCacheProperties blobCache = new BlobCacheProperties();
     private List<TargetProperties> targets;
 
+    /**
+     * Where branch changes are learned from.
+     * "zookeeper" watches the status nodes, "polling" reads the ref advertisement of every target periodically,
+     * "local" watches the ref files of git-uris that are bare repositories on this host, anything else syncs once at startup.
+     */
     public String getSource() {
         return source;
     }
@@ -151,4 +679,76 @@ public class JsDMSSpringClientProperties {
     public void setZookeeper(ZookeeperProperties zookeeper) {
         this.zookeeper = zookeeper;
     }
+
+    public PollingProperties getPolling() {
+        return polling;
+    }
+
+    public void setPolling(PollingProperties polling) {
+        this.polling = polling;
+    }
+
+    public FetchAdmissionProperties getFetchAdmission() {
+        return fetchAdmission;
+    }
+
+    public void setFetchAdmission(FetchAdmissionProperties fetchAdmission) {
+        this.fetchAdmission = fetchAdmission;
+    }
+
+    public PeerProperties getPeer() {
+        return peer;
+    }
+
+    public void setPeer(PeerProperties peer) {
+        this.peer = peer;
+    }
+
+    public MaintenanceProperties getMaintenance() {
+        return maintenance;
+    }
+
+    public void setMaintenance(MaintenanceProperties maintenance) {
+        this.maintenance = maintenance;
+    }
+
+    public EvictionProperties getEviction() {
+        return eviction;
+    }
+
+    public void setEviction(EvictionProperties eviction) {
+        this.eviction = eviction;
+    }
+
+    public ExecutorProperties getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorProperties executor) {
+        this.executor = executor;
+    }
+
+    public SshProperties getSsh() {
+        return ssh;
+    }
+
+    public void setSsh(SshProperties ssh) {
+        this.ssh = ssh;
+    }
+
+    public HandlerProperties getHandler() {
+        return handler;
+    }
+
+    public void setHandler(HandlerProperties handler) {
+        this.handler = handler;
+    }
+
+    public BlobCacheProperties getBlobCache() {
+        return blobCache;
+    }
+
+    public void setBlobCache(BlobCacheProperties blobCache) {
+        this.blobCache = blobCache;
+    }
 }
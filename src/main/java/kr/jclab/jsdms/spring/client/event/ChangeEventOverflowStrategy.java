@@ -0,0 +1,21 @@
+package kr.jclab.jsdms.spring.client.event;
+
+/**
+ * What a change event subscription does when its buffer is full because the subscriber requests slower than branches sync.
+ */
+public enum ChangeEventOverflowStrategy {
+    /**
+     * Keep one pending event per target and branch. A new event is merged into the pending one of its branch,
+     * so the subscriber gets the change from the last delivered commit to the newest one.
+     * If the buffer is full of other branches, the oldest pending event is dropped.
+     */
+    LATEST,
+    /**
+     * Drop the new event.
+     */
+    DROP,
+    /**
+     * Cancel the subscription and signal onError.
+     */
+    ERROR
+}
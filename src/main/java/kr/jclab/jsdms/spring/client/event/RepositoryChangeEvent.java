@@ -0,0 +1,75 @@
+package kr.jclab.jsdms.spring.client.event;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A synced branch together with what changed in it.
+ *
+ * Paths are relative to the branch directory and use '/' as separator.
+ * A rename is reported as a deleted and an added path.
+ */
+public class RepositoryChangeEvent {
+    private final String targetName;
+    private final String branchName;
+    private final File branchDir;
+    private final String oldCommitId;
+    private final String newCommitId;
+    private final List<String> addedPaths;
+    private final List<String> modifiedPaths;
+    private final List<String> deletedPaths;
+
+    public RepositoryChangeEvent(String targetName, String branchName, File branchDir, String oldCommitId, String newCommitId, List<String> addedPaths, List<String> modifiedPaths, List<String> deletedPaths) {
+        this.targetName = targetName;
+        this.branchName = branchName;
+        this.branchDir = branchDir;
+        this.oldCommitId = oldCommitId;
+        this.newCommitId = newCommitId;
+        this.addedPaths = Collections.unmodifiableList(addedPaths);
+        this.modifiedPaths = Collections.unmodifiableList(modifiedPaths);
+        this.deletedPaths = Collections.unmodifiableList(deletedPaths);
+    }
+
+    public String getTargetName() {
+        return targetName;
+    }
+
+    public String getBranchName() {
+        return branchName;
+    }
+
+    public File getBranchDir() {
+        return branchDir;
+    }
+
+    /**
+     * @return the commit the branch was at before this sync, or null if the branch was synced for the first time
+     */
+    public String getOldCommitId() {
+        return oldCommitId;
+    }
+
+    public String getNewCommitId() {
+        return newCommitId;
+    }
+
+    public List<String> getAddedPaths() {
+        return addedPaths;
+    }
+
+    public List<String> getModifiedPaths() {
+        return modifiedPaths;
+    }
+
+    public List<String> getDeletedPaths() {
+        return deletedPaths;
+    }
+
+    /**
+     * @return true if the old and the new commit have the same tree
+     */
+    public boolean isEmpty() {
+        return addedPaths.isEmpty() && modifiedPaths.isEmpty() && deletedPaths.isEmpty();
+    }
+}
@@ -0,0 +1,16 @@
+package kr.jclab.jsdms.spring.client.event;
+
+import java.io.File;
+
+/**
+ * {@link RepositoryChangeHandler} that is told which paths changed, so it can reload only those.
+ *
+ * The service calls {@link #onRepositoryChanged(RepositoryChangeEvent)} instead of the directory-only method for these handlers.
+ */
+public interface RepositoryChangeEventHandler extends RepositoryChangeHandler {
+    void onRepositoryChanged(RepositoryChangeEvent event);
+
+    @Override
+    default void onRepositoryChanged(String targetName, String branchName, File branchDir) {
+    }
+}
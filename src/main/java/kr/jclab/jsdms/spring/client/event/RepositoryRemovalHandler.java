@@ -0,0 +1,13 @@
+package kr.jclab.jsdms.spring.client.event;
+
+import java.io.File;
+
+/**
+ * Told when the directory of a deploy branch was removed, because the branch was deleted or not used for a while.
+ */
+public interface RepositoryRemovalHandler {
+    /**
+     * @param branchDir the published directory the branch had, gone by now unless the target is bare
+     */
+    void onRepositoryRemoved(String targetName, String branchName, File branchDir);
+}
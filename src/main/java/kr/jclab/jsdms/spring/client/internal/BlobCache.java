@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of inflated blobs, bounded by the total number of bytes.
+ *
+ * Blobs are keyed by their object id, so one cache is shared by all targets and never needs invalidation.
+ */
+class BlobCache {
+    private final long maxSize;
+    private final LinkedHashMap<ObjectId, byte[]> blobs = new LinkedHashMap<ObjectId, byte[]>(16, 0.75f, true);
+    private long size = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public BlobCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized byte[] get(ObjectId blobId) {
+        byte[] data = blobs.get(blobId);
+        if (data != null)
+            hitCount++;
+        else
+            missCount++;
+        return data;
+    }
+
+    /**
+     * Blobs larger than the whole cache are not kept.
+     */
+    public synchronized void put(ObjectId blobId, byte[] data) {
+        if (data.length > maxSize)
+            return;
+        byte[] previous = blobs.put(blobId.copy(), data);
+        if (previous != null)
+            size -= previous.length;
+        size += data.length;
+
+        Iterator<Map.Entry<ObjectId, byte[]>> iterator = blobs.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
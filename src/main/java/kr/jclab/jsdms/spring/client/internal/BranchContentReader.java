@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FS;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NotDirectoryException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads files of a synced branch straight from the object database, without a working tree.
+ *
+ * A bare target is read at the commit its handlers were last told about (or its tracking ref before the first sync),
+ * any other target at the HEAD of the branch repository.
+ * Inflated blobs go through the shared {@link BlobCache}; blobs JGit considers large are streamed and never cached.
+ */
+class BranchContentReader {
+    private final TargetMonitor targetMonitor;
+    private final BlobCache blobCache;
+    private final Map<File, Repository> repositories = new ConcurrentHashMap<File, Repository>();
+
+    public BranchContentReader(TargetMonitor targetMonitor, BlobCache blobCache) {
+        this.targetMonitor = targetMonitor;
+        this.blobCache = blobCache;
+    }
+
+    public InputStream open(String branchName, String path) throws IOException {
+        return lookup(branchName, path, (reader, objectId, fileMode, location) -> {
+            if ((fileMode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE)
+                throw new FileNotFoundException(location + " is a directory");
+            byte[] data = blobCache.get(objectId);
+            if (data != null)
+                return new ByteArrayInputStream(data);
+            ObjectLoader loader = reader.open(objectId, Constants.OBJ_BLOB);
+            if (loader.isLarge())
+                return loader.openStream();
+            data = loader.getCachedBytes();
+            blobCache.put(objectId, data);
+            return new ByteArrayInputStream(data);
+        });
+    }
+
+    public byte[] read(String branchName, String path) throws IOException {
+        return lookup(branchName, path, (reader, objectId, fileMode, location) -> {
+            if ((fileMode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE)
+                throw new FileNotFoundException(location + " is a directory");
+            byte[] data = blobCache.get(objectId);
+            if (data == null) {
+                ObjectLoader loader = reader.open(objectId, Constants.OBJ_BLOB);
+                data = loader.getCachedBytes(Integer.MAX_VALUE);
+                if (!loader.isLarge())
+                    blobCache.put(objectId, data);
+            }
+            // the cached array is shared with other readers
+            return data.clone();
+        });
+    }
+
+    /**
+     * @return names of the entries of the directory, sub directories with a trailing '/'
+     */
+    public List<String> list(String branchName, String path) throws IOException {
+        return lookup(branchName, path, (reader, objectId, fileMode, location) -> {
+            if ((fileMode.getBits() & FileMode.TYPE_MASK) != FileMode.TYPE_TREE)
+                throw new NotDirectoryException(location);
+            List<String> names = new ArrayList<String>();
+            try (TreeWalk treeWalk = new TreeWalk(reader)) {
+                treeWalk.addTree(objectId);
+                while (treeWalk.next()) {
+                    names.add(treeWalk.isSubtree() ? treeWalk.getNameString() + "/" : treeWalk.getNameString());
+                }
+            }
+            return names;
+        });
+    }
+
+    /**
+     * Closes the repository of a removed branch. A bare target reads every branch from master, which stays open.
+     */
+    public void forget(String branchName) {
+        if (targetMonitor.isBare())
+            return;
+        Repository repository = repositories.remove(targetMonitor.getBranchWorkDir(branchName));
+        if (repository != null)
+            repository.close();
+    }
+
+    public void close() {
+        for (Repository repository : repositories.values())
+            repository.close();
+        repositories.clear();
+    }
+
+    private <T> T lookup(String branchName, String path, EntryFunction<T> function) throws IOException {
+        targetMonitor.markUsed(branchName);
+        Repository repository = getRepository(branchName);
+        ObjectId commitId = resolveCommit(repository, branchName);
+        if (commitId == null)
+            throw new FileNotFoundException(targetMonitor.getProperties().getName() + ": branch not synced: " + branchName);
+
+        String normalizedPath = path.replace('\\', '/');
+        while (normalizedPath.startsWith("/"))
+            normalizedPath = normalizedPath.substring(1);
+        while (normalizedPath.endsWith("/"))
+            normalizedPath = normalizedPath.substring(0, normalizedPath.length() - 1);
+        String location = branchName + ":/" + normalizedPath;
+
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader)) {
+            ObjectId treeId = revWalk.parseCommit(commitId).getTree();
+            if (normalizedPath.isEmpty())
+                return function.apply(reader, treeId, FileMode.TREE, location);
+            try (TreeWalk treeWalk = TreeWalk.forPath(reader, normalizedPath, treeId)) {
+                if (treeWalk == null)
+                    throw new FileNotFoundException(location);
+                return function.apply(reader, treeWalk.getObjectId(0), treeWalk.getFileMode(0), location);
+            }
+        }
+    }
+
+    private Repository getRepository(String branchName) throws IOException {
+        File directory = targetMonitor.isBare() ? targetMonitor.getResourceMasterDir() : targetMonitor.getBranchWorkDir(branchName);
+        Repository repository = repositories.get(directory);
+        if (repository != null)
+            return repository;
+        File gitDir = RepositoryCache.FileKey.resolve(directory, FS.DETECTED);
+        if (gitDir == null)
+            throw new FileNotFoundException(targetMonitor.getProperties().getName() + ": branch not synced: " + branchName);
+        repository = new FileRepositoryBuilder()
+                .setGitDir(gitDir)
+                .setMustExist(true)
+                .build();
+        Repository existing = repositories.putIfAbsent(directory, repository);
+        if (existing != null) {
+            repository.close();
+            return existing;
+        }
+        return repository;
+    }
+
+    private ObjectId resolveCommit(Repository repository, String branchName) throws IOException {
+        if (!targetMonitor.isBare())
+            return repository.resolve(Constants.HEAD);
+        ObjectId syncedCommit = targetMonitor.getSyncedCommit(branchName);
+        if (syncedCommit != null)
+            return syncedCommit;
+        Ref trackingRef = repository.exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName);
+        return (trackingRef != null) ? trackingRef.getObjectId() : null;
+    }
+
+    private interface EntryFunction<T> {
+        T apply(ObjectReader reader, ObjectId objectId, FileMode fileMode, String location) throws IOException;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import kr.jclab.jsdms.spring.client.event.RepositoryRemovalHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the directories of deploy branches that were deleted, or that were not synced nor read for stale-time.
+ *
+ * A branch counts as deleted when its status node or its ref on the remote disappears. The removal is carried out
+ * grace-period after it was requested and is called off if the branch is synced again meanwhile, or shows up again for a deleted one.
+ * It waits until every change handler returned from the earlier changes of the branch and then runs as a task of the target's
+ * {@link OrderingExecutor} key, so it never overlaps a sync of the target; if the full sync queue drops it, it is tried again
+ * an interval later. Snapshots still held by readers go when they are released.
+ */
+class BranchEvictor {
+    private final ServiceImpl service;
+    private final HandlerDispatcher handlerDispatcher;
+    private final JsDMSSpringClientProperties.EvictionProperties properties;
+    private final Set<RepositoryRemovalHandler> handlers = new CopyOnWriteArraySet<RepositoryRemovalHandler>();
+    private final List<TargetMonitor> targetMonitors = new CopyOnWriteArrayList<TargetMonitor>();
+    private final Map<BranchKey, Removal> removals = new ConcurrentHashMap<BranchKey, Removal>();
+    private final ScheduledExecutorService scheduler;
+
+    public BranchEvictor(ServiceImpl service, HandlerDispatcher handlerDispatcher, JsDMSSpringClientProperties.EvictionProperties properties) {
+        this.service = service;
+        this.handlerDispatcher = handlerDispatcher;
+        this.properties = properties;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jsdms-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void add(TargetMonitor targetMonitor) {
+        targetMonitors.add(targetMonitor);
+    }
+
+    public void start() {
+        if (properties.getStaleTime() > 0)
+            scheduler.scheduleWithFixedDelay(this::findStaleBranches, properties.getInterval(), properties.getInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void addHandler(RepositoryRemovalHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void removeHandler(RepositoryRemovalHandler handler) {
+        handlers.remove(handler);
+    }
+
+    /**
+     * Removes the branch grace-period from now. A stale removal becomes a deleted one, a pending one is not postponed.
+     *
+     * @param deleted the branch is gone, otherwise it is only stale
+     */
+    public void requestRemoval(TargetMonitor targetMonitor, String branchName, boolean deleted) {
+        if (!branchName.startsWith("deploy-"))
+            return;
+        BranchKey key = new BranchKey(targetMonitor, branchName);
+        Removal removal = new Removal(deleted);
+        if (removals.compute(key, (k, current) -> (current != null && (current.deleted || !deleted)) ? current : removal) != removal)
+            return;
+        try {
+            scheduler.schedule(() -> carryOut(key, removal), properties.getGracePeriod(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            return;
+        }
+        System.out.println(key + ": remove in " + properties.getGracePeriod() + "ms, " + (deleted ? "deleted" : "stale"));
+    }
+
+    /**
+     * Calls off the removal of a branch that is synced again.
+     */
+    public void keep(TargetMonitor targetMonitor, String branchName) {
+        BranchKey key = new BranchKey(targetMonitor, branchName);
+        if (removals.remove(key) != null)
+            System.out.println(key + ": removal called off, synced again");
+    }
+
+    /**
+     * Calls off the removal of a deleted branch that exists again. A stale branch is still removed.
+     */
+    public void present(TargetMonitor targetMonitor, String branchName) {
+        BranchKey key = new BranchKey(targetMonitor, branchName);
+        Removal removal = removals.get(key);
+        if (removal != null && removal.deleted && removals.remove(key, removal))
+            System.out.println(key + ": removal called off, exists again");
+    }
+
+    private void findStaleBranches() {
+        long staleNanos = TimeUnit.MILLISECONDS.toNanos(properties.getStaleTime());
+        try {
+            for (TargetMonitor targetMonitor : targetMonitors) {
+                for (String branchName : targetMonitor.getSyncedBranches()) {
+                    if (targetMonitor.getUnusedNanos(branchName) >= staleNanos)
+                        requestRemoval(targetMonitor, branchName, false);
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void carryOut(BranchKey key, Removal removal) {
+        if (removals.get(key) != removal)
+            return;
+        TargetMonitor targetMonitor = key.getTargetMonitor();
+        handlerDispatcher.drain(targetMonitor.getProperties().getName(), key.getBranchName()).thenRun(() -> {
+            try {
+                if (!service.execute(() -> remove(key, removal), targetMonitor)) {
+                    System.err.println(key + ": sync queue is full, removal tried again in " + properties.getInterval() + "ms");
+                    scheduler.schedule(() -> carryOut(key, removal), properties.getInterval(), TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        });
+    }
+
+    private void remove(BranchKey key, Removal removal) {
+        // a sync queued meanwhile ran before this task and called the removal off
+        if (!removals.remove(key, removal))
+            return;
+        TargetMonitor targetMonitor = key.getTargetMonitor();
+        String targetName = targetMonitor.getProperties().getName();
+        String branchName = key.getBranchName();
+        if (!removal.deleted && targetMonitor.getUnusedNanos(branchName) < TimeUnit.MILLISECONDS.toNanos(properties.getStaleTime()))
+            return;
+        File branchDir;
+        try {
+            branchDir = targetMonitor.removeBranch(branchName, removal.deleted);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (branchDir == null)
+            return;
+        System.out.println(branchDir.getAbsolutePath() + ": branch(" + branchName + ") removed");
+        try {
+            scheduler.execute(() -> {
+                for (RepositoryRemovalHandler handler : handlers) {
+                    try {
+                        handler.onRepositoryRemoved(targetName, branchName, branchDir);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    private static final class Removal {
+        private final boolean deleted;
+
+        Removal(boolean deleted) {
+            this.deleted = deleted;
+        }
+    }
+}
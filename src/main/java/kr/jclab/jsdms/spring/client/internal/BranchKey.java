@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+/**
+ * Identifies one branch of one target.
+ */
+final class BranchKey {
+    private final TargetMonitor targetMonitor;
+    private final String branchName;
+
+    public BranchKey(TargetMonitor targetMonitor, String branchName) {
+        this.targetMonitor = targetMonitor;
+        this.branchName = branchName;
+    }
+
+    public TargetMonitor getTargetMonitor() {
+        return targetMonitor;
+    }
+
+    public String getBranchName() {
+        return branchName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BranchKey))
+            return false;
+        BranchKey other = (BranchKey) o;
+        return targetMonitor == other.targetMonitor && branchName.equals(other.branchName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(targetMonitor) + branchName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return targetMonitor.getProperties().getName() + "/" + branchName;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.event.ChangeEventOverflowStrategy;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEvent;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands change events to Reactive Streams subscribers.
+ *
+ * {@link #publish(RepositoryChangeEvent)} only appends to the bounded buffer of every matching subscription and returns,
+ * the subscribers are called on the delivery executor, one drain loop per subscription, as far as they requested.
+ * A full buffer is handled by the {@link ChangeEventOverflowStrategy} of the subscription, never by blocking the sync thread.
+ */
+class ChangeEventBroadcaster {
+    private final Executor deliveryExecutor;
+    private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<ChangeSubscription>();
+
+    public ChangeEventBroadcaster(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * @param targetName events of this target only, or null for all targets
+     * @param branchName events of this branch only, or null for all branches
+     */
+    public Publisher<RepositoryChangeEvent> publisher(String targetName, String branchName, int bufferSize, ChangeEventOverflowStrategy overflowStrategy) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        if (overflowStrategy == null)
+            throw new NullPointerException("overflowStrategy");
+        return subscriber -> {
+            if (subscriber == null)
+                throw new NullPointerException("subscriber");
+            ChangeSubscription subscription = new ChangeSubscription(subscriber, targetName, branchName, bufferSize, overflowStrategy);
+            subscriptions.add(subscription);
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    public boolean hasSubscribers(String targetName, String branchName) {
+        for (ChangeSubscription subscription : subscriptions) {
+            if (subscription.matches(targetName, branchName))
+                return true;
+        }
+        return false;
+    }
+
+    public void publish(RepositoryChangeEvent event) {
+        for (ChangeSubscription subscription : subscriptions) {
+            if (subscription.matches(event.getTargetName(), event.getBranchName()))
+                subscription.offer(event);
+        }
+    }
+
+    /**
+     * Completes every subscription after its buffered events were delivered.
+     */
+    public void close() {
+        for (ChangeSubscription subscription : subscriptions)
+            subscription.complete(null);
+    }
+
+    /**
+     * Combines two consecutive events of a branch into the change from the older event's old commit to the newer event's new commit.
+     */
+    static RepositoryChangeEvent merge(RepositoryChangeEvent older, RepositoryChangeEvent newer) {
+        Map<String, Character> changes = new LinkedHashMap<String, Character>();
+        applyChanges(changes, older);
+        applyChanges(changes, newer);
+        List<String> addedPaths = new ArrayList<String>();
+        List<String> modifiedPaths = new ArrayList<String>();
+        List<String> deletedPaths = new ArrayList<String>();
+        for (Map.Entry<String, Character> entry : changes.entrySet()) {
+            switch (entry.getValue()) {
+                case 'A':
+                    addedPaths.add(entry.getKey());
+                    break;
+                case 'M':
+                    modifiedPaths.add(entry.getKey());
+                    break;
+                default:
+                    deletedPaths.add(entry.getKey());
+                    break;
+            }
+        }
+        return new RepositoryChangeEvent(
+                newer.getTargetName(), newer.getBranchName(), newer.getBranchDir(),
+                older.getOldCommitId(), newer.getNewCommitId(),
+                addedPaths, modifiedPaths, deletedPaths);
+    }
+
+    private static void applyChanges(Map<String, Character> changes, RepositoryChangeEvent event) {
+        for (String path : event.getAddedPaths()) {
+            // deleted and added again is a modification
+            changes.put(path, (changes.get(path) != null) ? 'M' : 'A');
+        }
+        for (String path : event.getModifiedPaths()) {
+            if (changes.get(path) == null)
+                changes.put(path, 'M');
+        }
+        for (String path : event.getDeletedPaths()) {
+            Character previous = changes.get(path);
+            if (previous != null && previous == 'A')
+                changes.remove(path);
+            else
+                changes.put(path, 'D');
+        }
+    }
+
+    private static boolean sameBranch(RepositoryChangeEvent a, RepositoryChangeEvent b) {
+        return a.getTargetName().equals(b.getTargetName()) && a.getBranchName().equals(b.getBranchName());
+    }
+
+    class ChangeSubscription implements Subscription, Runnable {
+        private final Subscriber<? super RepositoryChangeEvent> subscriber;
+        private final String targetName;
+        private final String branchName;
+        private final int bufferSize;
+        private final ChangeEventOverflowStrategy overflowStrategy;
+
+        private final ArrayDeque<RepositoryChangeEvent> buffer = new ArrayDeque<RepositoryChangeEvent>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+        private volatile Throwable error = null;
+        private boolean terminated = false;
+
+        ChangeSubscription(Subscriber<? super RepositoryChangeEvent> subscriber, String targetName, String branchName, int bufferSize, ChangeEventOverflowStrategy overflowStrategy) {
+            this.subscriber = subscriber;
+            this.targetName = targetName;
+            this.branchName = branchName;
+            this.bufferSize = bufferSize;
+            this.overflowStrategy = overflowStrategy;
+        }
+
+        boolean matches(String targetName, String branchName) {
+            return !cancelled && !done
+                    && (this.targetName == null || this.targetName.equals(targetName))
+                    && (this.branchName == null || this.branchName.equals(branchName));
+        }
+
+        void offer(RepositoryChangeEvent event) {
+            synchronized (buffer) {
+                if (done)
+                    return;
+                if (overflowStrategy == ChangeEventOverflowStrategy.LATEST && mergePending(event)) {
+                    // merged into the pending event of the branch
+                } else if (buffer.size() < bufferSize) {
+                    buffer.addLast(event);
+                } else if (overflowStrategy == ChangeEventOverflowStrategy.LATEST) {
+                    buffer.pollFirst();
+                    buffer.addLast(event);
+                } else if (overflowStrategy == ChangeEventOverflowStrategy.DROP) {
+                    return;
+                } else {
+                    buffer.clear();
+                    error = new IllegalStateException("Change event buffer overflow (" + bufferSize + ")");
+                    done = true;
+                }
+            }
+            schedule();
+        }
+
+        private boolean mergePending(RepositoryChangeEvent event) {
+            for (Iterator<RepositoryChangeEvent> iterator = buffer.iterator(); iterator.hasNext(); ) {
+                RepositoryChangeEvent pending = iterator.next();
+                if (sameBranch(pending, event)) {
+                    iterator.remove();
+                    buffer.addLast(merge(pending, event));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void complete(Throwable failure) {
+            synchronized (buffer) {
+                if (done)
+                    return;
+                error = failure;
+                done = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                complete(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                next = current + n;
+                if (next < 0)
+                    next = Long.MAX_VALUE;
+            } while (!requested.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            try {
+                deliveryExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // shutting down, nothing is delivered anymore
+                cancel();
+            }
+        }
+
+        /**
+         * Drain loop, runs on the delivery executor and never concurrently for one subscription.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+
+        private void drain() {
+            while (!cancelled && !terminated) {
+                RepositoryChangeEvent event = null;
+                boolean finished;
+                synchronized (buffer) {
+                    if (requested.get() > 0)
+                        event = buffer.pollFirst();
+                    finished = done && buffer.isEmpty();
+                }
+                if (event != null) {
+                    if (requested.get() != Long.MAX_VALUE)
+                        requested.decrementAndGet();
+                    try {
+                        subscriber.onNext(event);
+                    } catch (Throwable e) {
+                        // a throwing subscriber breaks the contract, stop talking to it
+                        e.printStackTrace();
+                        cancel();
+                    }
+                    continue;
+                }
+                if (finished) {
+                    terminated = true;
+                    subscriptions.remove(this);
+                    if (error != null)
+                        subscriber.onError(error);
+                    else
+                        subscriber.onComplete();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Thread pool that shares its workers between flows by weighted fair queuing.
+ *
+ * A flow is the key of an {@link OrderingExecutor} queue handed to this pool (a {@link TargetMonitor} in practice),
+ * any other task is a flow of its own. Each handed-over task gets a start tag of max(virtual time, last finish tag of its flow)
+ * and a finish tag of start + 1 / weight, and workers always take the smallest start tag.
+ * So a flow with weight 2 is served twice as often as a flow with weight 1 while both have work,
+ * and a target cloning a huge repository cannot starve the others.
+ *
+ * Flows reported urgent are ordered before all others.
+ */
+public class FairSyncExecutor extends ThreadPoolExecutor {
+    private final ToIntFunction<Object> weightFunction;
+    private final Predicate<Object> urgentPredicate;
+
+    private final Map<Object, Double> lastFinishTags = new HashMap<Object, Double>();
+    private double virtualTime = 0;
+    private long sequence = 0;
+
+    public FairSyncExecutor(int poolSize, ToIntFunction<Object> weightFunction, Predicate<Object> urgentPredicate) {
+        super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+        this.weightFunction = weightFunction;
+        this.urgentPredicate = urgentPredicate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof FairTask) {
+            super.execute(command);
+            return;
+        }
+        Object flowKey = (command instanceof OrderingExecutor.KeyedRunnable) ? ((OrderingExecutor.KeyedRunnable) command).getKey() : null;
+        super.execute(tag(command, flowKey, flowKey != null && urgentPredicate.test(flowKey)));
+    }
+
+    /**
+     * Moves the waiting task of the flow ahead of non-urgent work, for flows that became urgent after being queued.
+     */
+    public void promote(Object flowKey) {
+        for (Runnable queued : getQueue()) {
+            FairTask fairTask = (FairTask) queued;
+            if (!fairTask.urgent && flowKey.equals(fairTask.flowKey) && getQueue().remove(fairTask)) {
+                getQueue().offer(tag(fairTask.task, flowKey, true));
+                return;
+            }
+        }
+    }
+
+    private synchronized FairTask tag(Runnable task, Object flowKey, boolean urgent) {
+        double startTag = virtualTime;
+        if (flowKey != null) {
+            Double lastFinishTag = lastFinishTags.get(flowKey);
+            if (lastFinishTag != null && lastFinishTag > startTag)
+                startTag = lastFinishTag;
+        }
+        int weight = (flowKey != null) ? Math.max(1, weightFunction.applyAsInt(flowKey)) : 1;
+        if (flowKey != null)
+            lastFinishTags.put(flowKey, startTag + 1.0 / weight);
+        return new FairTask(task, flowKey, urgent, startTag, sequence++);
+    }
+
+    private synchronized void advance(double startTag) {
+        if (startTag > virtualTime)
+            virtualTime = startTag;
+    }
+
+    class FairTask implements Runnable, Comparable<FairTask> {
+        private final Runnable task;
+        private final Object flowKey;
+        private final boolean urgent;
+        private final double startTag;
+        private final long sequence;
+
+        public FairTask(Runnable task, Object flowKey, boolean urgent, double startTag, long sequence) {
+            this.task = task;
+            this.flowKey = flowKey;
+            this.urgent = urgent;
+            this.startTag = startTag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            advance(startTag);
+            task.run();
+        }
+
+        @Override
+        public int compareTo(FairTask o) {
+            if (urgent != o.urgent)
+                return urgent ? -1 : 1;
+            int result = Double.compare(startTag, o.startTag);
+            if (result != 0)
+                return result;
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
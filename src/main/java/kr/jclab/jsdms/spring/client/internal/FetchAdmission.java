@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreV2;
+import org.apache.curator.framework.recipes.locks.Lease;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Staggers the transfers from the git server of all nodes of a cluster.
+ *
+ * A noticed change or the startup download is queued after a random start delay, which a scheduler waits
+ * so no sync thread sleeps. Before a sync that transfers is queued the node takes one lease of a Curator semaphore
+ * under /dms/git-repo-fetch/{repo}, so at most max-concurrent nodes transfer one repository at a time.
+ * The lease is waited for on a thread of its own and handed to the sync task, which releases it when it is done,
+ * so a sync thread is only taken once the node is admitted.
+ * Waiting nodes are woken by a watch on the lease nodes, they do not poll.
+ * The semaphore is kept beside /dms/git-repo-status, whose children are taken for branches.
+ */
+class FetchAdmission {
+    static final String LEASE_ROOT = "/dms/git-repo-fetch/";
+
+    private final CuratorFramework curatorFramework;
+    private final JsDMSSpringClientProperties.FetchAdmissionProperties properties;
+    private final Map<String, InterProcessSemaphoreV2> semaphores = new ConcurrentHashMap<String, InterProcessSemaphoreV2>();
+    // null without a start delay
+    private final ScheduledExecutorService delayScheduler;
+    // null without coordination
+    private final ExecutorService leaseWaiters;
+    // syncs waiting for a lease, a later request for one of them is covered by it
+    private final Set<Object> waitingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Held by a sync task while it transfers. Closing it more than once releases the lease once.
+     */
+    interface Admitted extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static final Admitted UNCOORDINATED = () -> { };
+
+    /**
+     * @param curatorFramework null to only apply the start delay
+     */
+    public FetchAdmission(CuratorFramework curatorFramework, JsDMSSpringClientProperties.FetchAdmissionProperties properties) {
+        this.curatorFramework = curatorFramework;
+        this.properties = properties;
+        if (properties.getStartDelay() > 0) {
+            this.delayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jsdms-fetch-delay");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.delayScheduler = null;
+        }
+        if (curatorFramework != null && properties.getMaxConcurrent() > 0) {
+            this.leaseWaiters = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "jsdms-fetch-admission");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.leaseWaiters = null;
+        }
+    }
+
+    /**
+     * Runs the task, which queues a sync, after the random start delay.
+     * Without a start delay it runs at once on the calling thread.
+     */
+    public void delay(Runnable task) {
+        if (delayScheduler == null) {
+            task.run();
+            return;
+        }
+        try {
+            delayScheduler.schedule(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }, ThreadLocalRandom.current().nextLong(properties.getStartDelay() + 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    public void stop() {
+        if (delayScheduler != null)
+            delayScheduler.shutdownNow();
+        if (leaseWaiters != null)
+            leaseWaiters.shutdownNow();
+    }
+
+    /**
+     * Queues a sync that transfers once the node may transfer the repository.
+     * Without coordination it is queued at once on the calling thread, otherwise once a lease thread got the lease.
+     * While a sync of the key waits for its lease, another request for it is dropped, the waiting one covers it.
+     *
+     * @param key the sync, e.g. the coalesce key of its task, or null if a later request is never covered by it
+     * @param queue queues the sync task holding the admission, returns false if the task was dropped
+     * @param onDropped called if the task is dropped after this method returned
+     * @return false if the task was dropped at once
+     */
+    public boolean admit(TargetMonitor targetMonitor, Object key, Predicate<Admitted> queue, Runnable onDropped) {
+        if (leaseWaiters == null)
+            return queue.test(UNCOORDINATED);
+        if (key != null && !waitingKeys.add(key))
+            return true;
+        try {
+            leaseWaiters.execute(() -> {
+                Admitted admitted = acquire(targetMonitor);
+                if (key != null)
+                    waitingKeys.remove(key);
+                boolean accepted = false;
+                try {
+                    accepted = queue.test(admitted);
+                } catch (RuntimeException e) {
+                    // dropped by a shutdown or an aborting queue
+                } finally {
+                    if (!accepted) {
+                        admitted.close();
+                        onDropped.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (key != null)
+                waitingKeys.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until the node may transfer the repository.
+     *
+     * @return the lease to close when the transfer is done. If no lease was granted within acquire-timeout,
+     * or ZooKeeper fails, the transfer is admitted anyway rather than left stale
+     */
+    private Admitted acquire(TargetMonitor targetMonitor) {
+        try {
+            String repoName = targetMonitor.getGitRepoName();
+            InterProcessSemaphoreV2 semaphore = semaphores.computeIfAbsent(repoName,
+                    key -> new InterProcessSemaphoreV2(curatorFramework, LEASE_ROOT + key, properties.getMaxConcurrent()));
+            Lease lease = semaphore.acquire(properties.getAcquireTimeout(), TimeUnit.MILLISECONDS);
+            if (lease == null) {
+                System.err.println(targetMonitor.getRepoDir().getAbsolutePath() + ": no fetch lease within " + properties.getAcquireTimeout() + "ms, fetching anyway");
+                return UNCOORDINATED;
+            }
+            AtomicBoolean closed = new AtomicBoolean();
+            return () -> {
+                if (!closed.compareAndSet(false, true))
+                    return;
+                try {
+                    lease.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return UNCOORDINATED;
+    }
+}
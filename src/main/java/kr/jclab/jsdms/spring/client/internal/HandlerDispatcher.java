@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEvent;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEventHandler;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeHandler;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls the {@link RepositoryChangeHandler}s on a pool of their own, so sync threads never wait for a handler.
+ *
+ * Every (handler, target, branch) is an {@link OrderingExecutor} key, so a handler gets the changes of a branch in sync order,
+ * while a slow handler only holds back its own later events. A handler still running after the timeout is reported
+ * with the stack of its thread; it is not interrupted.
+ */
+class HandlerDispatcher {
+    private final Set<RepositoryChangeHandler> handlers = new CopyOnWriteArraySet<RepositoryChangeHandler>();
+    private final ExecutorService executorService;
+    private final OrderingExecutor executor;
+    private final ScheduledExecutorService watchdog;
+    private final long timeout;
+    private final SyncMetrics syncMetrics;
+
+    public HandlerDispatcher(int poolSize, long timeout, SyncMetrics syncMetrics) {
+        this.executorService = Executors.newFixedThreadPool(poolSize);
+        this.executor = new OrderingExecutor(this.executorService);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor();
+        this.timeout = timeout;
+        this.syncMetrics = syncMetrics;
+    }
+
+    public void addHandler(RepositoryChangeHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void removeHandler(RepositoryChangeHandler handler) {
+        handlers.remove(handler);
+    }
+
+    public boolean isEmpty() {
+        return handlers.isEmpty();
+    }
+
+    public boolean hasEventHandlers() {
+        for (RepositoryChangeHandler handler : handlers) {
+            if (handler instanceof RepositoryChangeEventHandler)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param event the change, required if an event handler is registered
+     * @param resource closed after every handler returned, e.g. the snapshot the branch directory belongs to; may be null
+     */
+    public void dispatch(String targetName, String branchName, File branchDir, RepositoryChangeEvent event, AutoCloseable resource) {
+        Object[] currentHandlers = handlers.toArray();
+        AtomicInteger remaining = new AtomicInteger(currentHandlers.length);
+        if (currentHandlers.length == 0) {
+            closeQuietly(resource);
+            return;
+        }
+        for (Object object : currentHandlers) {
+            RepositoryChangeHandler handler = (RepositoryChangeHandler) object;
+            Runnable release = () -> {
+                if (remaining.decrementAndGet() == 0)
+                    closeQuietly(resource);
+            };
+            try {
+                executor.execute(() -> {
+                    try {
+                        // removed while the event was queued
+                        if (handlers.contains(handler))
+                            invoke(handler, targetName, branchName, branchDir, event);
+                    } finally {
+                        release.run();
+                    }
+                }, new HandlerKey(handler, targetName, branchName));
+            } catch (RejectedExecutionException e) {
+                // shut down
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * @return completed once every handler returned from the changes of the branch dispatched before this call
+     */
+    public CompletableFuture<Void> drain(String targetName, String branchName) {
+        Object[] currentHandlers = handlers.toArray();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[currentHandlers.length];
+        for (int i = 0; i < currentHandlers.length; i++) {
+            CompletableFuture<Void> future = new CompletableFuture<Void>();
+            futures[i] = future;
+            try {
+                executor.execute(() -> future.complete(null), new HandlerKey((RepositoryChangeHandler) currentHandlers[i], targetName, branchName));
+            } catch (RejectedExecutionException e) {
+                // shut down
+                future.complete(null);
+            }
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private void invoke(RepositoryChangeHandler handler, String targetName, String branchName, File branchDir, RepositoryChangeEvent event) {
+        Thread thread = Thread.currentThread();
+        long startedAt = System.nanoTime();
+        ScheduledFuture<?> report = null;
+        try {
+            report = watchdog.schedule(() -> {
+                Throwable stack = new Throwable(handler + " is handling " + targetName + "/" + branchName + " for more than " + timeout + "ms");
+                stack.setStackTrace(thread.getStackTrace());
+                stack.printStackTrace();
+            }, timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, deliver the remaining events unwatched
+        }
+        try {
+            if (handler instanceof RepositoryChangeEventHandler) {
+                ((RepositoryChangeEventHandler) handler).onRepositoryChanged(event);
+            } else {
+                handler.onRepositoryChanged(targetName, branchName, branchDir);
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            long elapsed = System.nanoTime() - startedAt;
+            syncMetrics.recordPhase(targetName, branchName, "handler", elapsed);
+            if (report != null && !report.cancel(false)) {
+                System.err.println(handler + " handled " + targetName + "/" + branchName + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null)
+            return;
+        try {
+            resource.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+        watchdog.shutdownNow();
+    }
+
+    private static final class HandlerKey {
+        private final RepositoryChangeHandler handler;
+        private final String targetName;
+        private final String branchName;
+
+        HandlerKey(RepositoryChangeHandler handler, String targetName, String branchName) {
+            this.handler = handler;
+            this.targetName = targetName;
+            this.branchName = branchName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof HandlerKey))
+                return false;
+            HandlerKey other = (HandlerKey) o;
+            return handler == other.handler && targetName.equals(other.targetName) && branchName.equals(other.branchName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(handler) + targetName.hashCode()) + branchName.hashCode();
+        }
+    }
+}
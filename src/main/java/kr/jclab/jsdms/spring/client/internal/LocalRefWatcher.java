@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Change source for targets whose git-uri is a bare repository on this host.
+ *
+ * Watches refs/heads (recursively) and the repository directory, for packed-refs, of every target with one {@link WatchService}.
+ * After a burst of events settled the refs are read again and moved deploy-* branches are pulled,
+ * which fetches over the local file transport. No ZooKeeper and no network are involved.
+ */
+class LocalRefWatcher implements Runnable {
+    private static final long SETTLE_MILLIS = 20;
+
+    private final ServiceImpl service;
+    private final WatchService watchService;
+    private final Map<WatchKey, Watched> watchedKeys = new ConcurrentHashMap<WatchKey, Watched>();
+    private final Thread thread;
+
+    public LocalRefWatcher(ServiceImpl service) throws IOException {
+        this.service = service;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this, "jsdms-local-ref-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts watching the target once its startup sync is over, and catches up with pushes made meanwhile.
+     */
+    public void add(TargetMonitor targetMonitor) {
+        File gitDir;
+        try {
+            gitDir = resolveGitDir(targetMonitor.getProperties().getGitUri());
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!new File(gitDir, Constants.R_REFS).isDirectory()) {
+            System.err.println(targetMonitor.getProperties().getName() + ": not a local bare repository: " + gitDir);
+            return;
+        }
+        Watched watched = new Watched(targetMonitor, gitDir);
+        targetMonitor.getInitialSyncFuture().whenComplete((result, e) -> {
+            try {
+                register(watched, gitDir.toPath());
+                registerTree(watched, new File(gitDir, Constants.R_HEADS).toPath());
+                watched.scan();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        });
+    }
+
+    public void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static File resolveGitDir(String gitUri) throws URISyntaxException {
+        if (gitUri.startsWith("file:"))
+            return new File(new URIish(gitUri).getPath());
+        return new File(gitUri);
+    }
+
+    private void register(Watched watched, Path dir) throws IOException {
+        WatchKey watchKey = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedKeys.put(watchKey, watched);
+    }
+
+    private void registerTree(Watched watched, Path root) throws IOException {
+        if (!Files.isDirectory(root))
+            return;
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator)
+                register(watched, dir);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                Set<Watched> changed = new HashSet<Watched>();
+                // a ref update is a lock file create, write and rename; wait for the burst to end
+                do {
+                    handle(watchKey, changed);
+                } while ((watchKey = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                for (Watched watched : changed)
+                    watched.scan();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void handle(WatchKey watchKey, Set<Watched> changed) {
+        Watched watched = watchedKeys.get(watchKey);
+        Path dir = (Path) watchKey.watchable();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (watched == null)
+                continue;
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.add(watched);
+                continue;
+            }
+            Path name = (Path) event.context();
+            Path path = dir.resolve(name);
+            if (name.toString().endsWith(".lock"))
+                continue;
+            if (dir.equals(watched.gitDir.toPath()) && !name.toString().equals(Constants.PACKED_REFS))
+                continue;
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(watched, path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            changed.add(watched);
+        }
+        if (!watchKey.reset())
+            watchedKeys.remove(watchKey);
+    }
+
+    private class Watched {
+        private final TargetMonitor targetMonitor;
+        private final File gitDir;
+        private final Map<String, ObjectId> lastSeen = new ConcurrentHashMap<String, ObjectId>();
+
+        Watched(TargetMonitor targetMonitor, File gitDir) {
+            this.targetMonitor = targetMonitor;
+            this.gitDir = gitDir;
+        }
+
+        synchronized void scan() {
+            try (Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+                Set<String> branchNames = new HashSet<String>();
+                for (Ref ref : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS + "deploy-")) {
+                    String branchName = ref.getName().substring(Constants.R_HEADS.length());
+                    ObjectId objectId = ref.getObjectId();
+                    branchNames.add(branchName);
+                    service.markBranchPresent(targetMonitor, branchName);
+                    if (objectId == null || objectId.equals(lastSeen.put(branchName, objectId)))
+                        continue;
+                    if (!targetMonitor.isSyncedTo(branchName, objectId.name())) {
+                        targetMonitor.markNotified(branchName);
+                        service.asyncPullBranch(targetMonitor, branchName);
+                    }
+                }
+                lastSeen.keySet().retainAll(branchNames);
+                for (String branchName : targetMonitor.getKnownBranches()) {
+                    if (!branchNames.contains(branchName))
+                        service.requestBranchRemoval(targetMonitor, branchName, true);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
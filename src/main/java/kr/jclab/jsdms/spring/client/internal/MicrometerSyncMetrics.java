@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * {@link SyncMetrics} backed by a Micrometer registry.
+ *
+ * <ul>
+ *     <li>jsdms.sync.phase: timer tagged target, branch and phase</li>
+ *     <li>jsdms.sync.latency: notification to handler completion, timer with percentile histogram tagged target and branch</li>
+ *     <li>jsdms.fetch.received.objects, jsdms.fetch.received.bytes: counters tagged target</li>
+ *     <li>jsdms.maintenance: gc duration, timer tagged target and branch</li>
+ *     <li>jsdms.maintenance.reclaimed.bytes: counter tagged target</li>
+ *     <li>jsdms.executor.queue.depth: gauge tagged target</li>
+ *     <li>jsdms.executor.active, jsdms.executor.pool.size, jsdms.executor.queued: gauges of the sync threads</li>
+ * </ul>
+ */
+public class MicrometerSyncMetrics implements SyncMetrics {
+    private final MeterRegistry registry;
+    // gauges only keep a weak reference to the object they read
+    private final List<IntSupplier> gaugeSources = new CopyOnWriteArrayList<IntSupplier>();
+
+    public MicrometerSyncMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordPhase(String targetName, String branchName, String phase, long nanos) {
+        Timer.builder("jsdms.sync.phase")
+                .tags("target", targetName, "branch", branchName, "phase", phase)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordReceived(String targetName, long objects, long bytes) {
+        if (objects > 0) {
+            Counter.builder("jsdms.fetch.received.objects")
+                    .tags("target", targetName)
+                    .register(registry)
+                    .increment(objects);
+        }
+        if (bytes > 0) {
+            Counter.builder("jsdms.fetch.received.bytes")
+                    .tags("target", targetName)
+                    .baseUnit("bytes")
+                    .register(registry)
+                    .increment(bytes);
+        }
+    }
+
+    @Override
+    public void recordEndToEnd(String targetName, String branchName, long nanos) {
+        Timer.builder("jsdms.sync.latency")
+                .tags("target", targetName, "branch", branchName)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordMaintenance(String targetName, String branchName, long nanos, long reclaimedBytes) {
+        Timer.builder("jsdms.maintenance")
+                .tags("target", targetName, "branch", branchName)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (reclaimedBytes > 0) {
+            Counter.builder("jsdms.maintenance.reclaimed.bytes")
+                    .tags("target", targetName)
+                    .baseUnit("bytes")
+                    .register(registry)
+                    .increment(reclaimedBytes);
+        }
+    }
+
+    @Override
+    public void bindTarget(String targetName, IntSupplier queueDepth) {
+        gauge("jsdms.executor.queue.depth", queueDepth, "target", targetName);
+    }
+
+    @Override
+    public void bindSyncPool(IntSupplier activeThreads, IntSupplier poolSize, IntSupplier queuedTasks) {
+        gauge("jsdms.executor.active", activeThreads);
+        gauge("jsdms.executor.pool.size", poolSize);
+        gauge("jsdms.executor.queued", queuedTasks);
+    }
+
+    private void gauge(String name, IntSupplier source, String... tags) {
+        gaugeSources.add(source);
+        Gauge.builder(name, source, IntSupplier::getAsInt)
+                .tags(tags)
+                .register(registry);
+    }
+}
@@ -15,91 +15,297 @@
  */
 package kr.jclab.jsdms.spring.client.internal;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
 
 /**
  * @see <a href="https://stackoverflow.com/questions/2153663/controlling-task-execution-order-with-executorservice">Controlling Task execution order with ExecutorService</a>
  *
  * This Executor warrants task ordering for tasks with same key (key have to implement hashCode and equal methods correctly).
+ *
+ * Every key owns a lock-free queue and a "scheduled" flag. Whoever flips the flag hands the queue to the delegate,
+ * which runs one task and then reschedules the queue if more tasks arrived, so no lock is shared between keys.
+ * A queue that ran empty is retired and dropped, so short-lived keys such as a handler and branch pair do not accumulate;
+ * a submission racing with the retirement looks the key up again and gets a fresh queue.
+ *
+ * Tasks submitted with {@link #executeCoalesced(Runnable, Object, Object)} are additionally merged by coalesce key:
+ * while a task for the coalesce key is queued but not yet started, new submissions replace its runnable (latest wins,
+ * unless a merge function picks otherwise) instead of queueing another one. So at most one running and one pending task exist per coalesce key.
+ *
+ * The number of queued and running tasks is bounded by the capacity, submissions beyond it are handled by the {@link OverflowPolicy}.
  */
 public class OrderingExecutor implements Executor {
 
+    public enum OverflowPolicy {
+        /**
+         * Drop the submitted task and count it.
+         */
+        DISCARD,
+        /**
+         * Throw a {@link RejectedExecutionException} to the submitter.
+         */
+        ABORT
+    }
+
+    /**
+     * Implemented by the runnables this executor hands to its delegate for keyed tasks.
+     */
+    public interface KeyedRunnable extends Runnable {
+        Object getKey();
+    }
+
     private final Executor delegate;
-    private final Map<Object, Queue<Runnable>> keyedTasks = new HashMap<Object, Queue<Runnable>>();
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicInteger pendingTaskCount = new AtomicInteger();
+    private final ConcurrentHashMap<Object, SerialQueue> keyedQueues = new ConcurrentHashMap<Object, SerialQueue>();
+    private final ConcurrentHashMap<Object, CoalescedTask> pendingCoalescedTasks = new ConcurrentHashMap<Object, CoalescedTask>();
+
+    private final AtomicLong mergedTaskCount = new AtomicLong();
+    private final AtomicLong droppedTaskCount = new AtomicLong();
 
     public OrderingExecutor(Executor delegate){
+        this(delegate, Integer.MAX_VALUE, OverflowPolicy.ABORT);
+    }
+
+    public OrderingExecutor(Executor delegate, int capacity, OverflowPolicy overflowPolicy){
         this.delegate = delegate;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
     }
 
     @Override
     public void execute(Runnable task) {
-        // task without key can be executed immediately
-        delegate.execute(task);
+        offer(task, null);
+    }
+
+    /**
+     * @return false if the task was discarded because the executor is full
+     */
+    public boolean execute(Runnable task, Object key) {
+        return offer(task, key);
     }
 
-    public void execute(Runnable task, Object key) {
-        if (key == null){ // if key is null, execute without ordering
-            execute(task);
-            return;
+    /**
+     * @return false if the task was discarded because the executor is full
+     */
+    private boolean offer(Runnable task, Object key) {
+        if (pendingTaskCount.incrementAndGet() > capacity) {
+            pendingTaskCount.decrementAndGet();
+            droppedTaskCount.incrementAndGet();
+            if (overflowPolicy == OverflowPolicy.ABORT)
+                throw new RejectedExecutionException("Too many pending tasks (capacity " + capacity + ")");
+            return false;
+        }
+
+        try {
+            if (key == null) { // if key is null, execute without ordering
+                // task without key can be executed immediately
+                delegate.execute(new CountedTask(task));
+            } else {
+                while (true) {
+                    SerialQueue serialQueue = keyedQueues.get(key);
+                    if (serialQueue == null) {
+                        serialQueue = keyedQueues.computeIfAbsent(key, SerialQueue::new);
+                    }
+                    if (serialQueue.enqueue(task))
+                        break;
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            pendingTaskCount.decrementAndGet();
+            droppedTaskCount.incrementAndGet();
+            throw e;
         }
+        return true;
+    }
+
+    /**
+     * @return false if the task was dropped because the executor is full
+     */
+    public boolean executeCoalesced(Runnable task, Object key, Object coalesceKey) {
+        return executeCoalesced(task, key, coalesceKey, (pending, submitted) -> submitted);
+    }
 
-        boolean first;
-        Runnable wrappedTask;
-        synchronized (keyedTasks){
-            Queue<Runnable> dependencyQueue = keyedTasks.get(key);
-            first = (dependencyQueue == null);
-            if (dependencyQueue == null){
-                dependencyQueue = new LinkedList<Runnable>();
-                keyedTasks.put(key, dependencyQueue);
+    /**
+     * @param merge picks what the pending task of the coalesce key runs, from its runnable and the submitted one
+     * @return false if the task was dropped because the executor is full
+     */
+    public boolean executeCoalesced(Runnable task, Object key, Object coalesceKey, BinaryOperator<Runnable> merge) {
+        final CoalescedTask[] created = new CoalescedTask[1];
+        pendingCoalescedTasks.compute(coalesceKey, (k, pending) -> {
+            if (pending != null) {
+                pending.task = merge.apply(pending.task, task);
+                mergedTaskCount.incrementAndGet();
+                return pending;
             }
+            created[0] = new CoalescedTask(task, coalesceKey);
+            return created[0];
+        });
 
-            wrappedTask = wrap(task, dependencyQueue, key);
-            if (!first)
-                dependencyQueue.add(wrappedTask);
+        if (created[0] != null) {
+            boolean accepted = false;
+            try {
+                accepted = offer(created[0], key);
+            } finally {
+                if (!accepted)
+                    pendingCoalescedTasks.remove(coalesceKey, created[0]);
+            }
+            return accepted;
         }
+        return true;
+    }
 
-        // execute method can block, call it outside synchronize block
-        if (first)
-            delegate.execute(wrappedTask);
+    /**
+     * @return number of submissions merged into an already pending task
+     */
+    public long getMergedTaskCount() {
+        return mergedTaskCount.get();
+    }
 
+    /**
+     * @return number of submissions discarded or rejected because the executor was full or shut down
+     */
+    public long getDroppedTaskCount() {
+        return droppedTaskCount.get();
     }
 
-    private Runnable wrap(Runnable task, Queue<Runnable> dependencyQueue, Object key) {
-        return new OrderedTask(task, dependencyQueue, key);
+    /**
+     * @return number of tasks queued or running
+     */
+    public int getPendingTaskCount() {
+        return pendingTaskCount.get();
     }
 
-    class OrderedTask implements Runnable{
+    /**
+     * @return number of tasks waiting in the queues of the keys accepted by the predicate, without the running ones
+     */
+    public int getQueuedTaskCount(Predicate<Object> keyPredicate) {
+        int count = 0;
+        for (SerialQueue serialQueue : keyedQueues.values()) {
+            if (keyPredicate.test(serialQueue.getKey()))
+                count += serialQueue.tasks.size();
+        }
+        return count;
+    }
 
-        private final Queue<Runnable> dependencyQueue;
+    class CountedTask implements Runnable {
         private final Runnable task;
-        private final Object key;
 
-        public OrderedTask(Runnable task, Queue<Runnable> dependencyQueue, Object key) {
+        public CountedTask(Runnable task) {
             this.task = task;
-            this.dependencyQueue = dependencyQueue;
-            this.key = key;
         }
 
         @Override
         public void run() {
-            try{
+            try {
                 task.run();
             } finally {
-                Runnable nextTask = null;
-                synchronized (keyedTasks){
-                    if (dependencyQueue.isEmpty()){
-                        keyedTasks.remove(key);
-                    }else{
-                        nextTask = dependencyQueue.poll();
+                pendingTaskCount.decrementAndGet();
+            }
+        }
+    }
+
+    class SerialQueue implements KeyedRunnable {
+
+        private final Object key;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // guarded by this; a retired queue is no longer in keyedQueues and takes no tasks
+        private boolean retired = false;
+
+        public SerialQueue(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        /**
+         * @return false if the queue was retired meanwhile, the caller has to look the key up again
+         */
+        boolean enqueue(Runnable task) {
+            synchronized (this) {
+                if (retired)
+                    return false;
+                tasks.offer(task);
+            }
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                tasks.remove(task);
+                retireIfIdle();
+                throw e;
+            }
+            return true;
+        }
+
+        private void retireIfIdle() {
+            synchronized (this) {
+                if (retired || !tasks.isEmpty() || scheduled.get())
+                    return;
+                retired = true;
+            }
+            keyedQueues.remove(key, this);
+        }
+
+        private void schedule() {
+            // only the holder of the flag polls, so a non-empty queue stays non-empty until it is handed over
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    delegate.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task = tasks.poll();
+                if (task != null) {
+                    try {
+                        task.run();
+                    } finally {
+                        pendingTaskCount.decrementAndGet();
                     }
                 }
-                if (nextTask!=null)
-                    delegate.execute(nextTask);
+            } finally {
+                scheduled.set(false);
+                if (tasks.isEmpty())
+                    retireIfIdle();
+                else
+                    schedule();
             }
         }
     }
-}
\ No newline at end of file
+
+    class CoalescedTask implements Runnable {
+        private final Object coalesceKey;
+        volatile Runnable task;
+
+        public CoalescedTask(Runnable task, Object coalesceKey) {
+            this.task = task;
+            this.coalesceKey = coalesceKey;
+        }
+
+        @Override
+        public void run() {
+            // once started, later submissions must queue a follow-up task
+            pendingCoalescedTasks.remove(coalesceKey, this);
+            task.run();
+        }
+    }
+}
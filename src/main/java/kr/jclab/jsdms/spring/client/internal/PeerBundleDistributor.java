@@ -0,0 +1,364 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportBundleStream;
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lets one node per repository download from the git server and the other nodes copy what it received.
+ *
+ * The nodes of a repository elect a leader with a Curator {@link LeaderLatch} under /dms/git-repo-peer/{repo}.
+ * After each transfer that moved refs/remotes/origin/* the leader writes a git bundle of the new commits,
+ * with the previous tracking refs as prerequisites, serves it from an embedded HTTP server
+ * and advertises its URL in the ephemeral node /dms/git-repo-peer/{repo}/bundles/{branch}.
+ * The server listens on peer.host when it is set, and only answers requests that carry peer.secret, without which it does not start.
+ *
+ * Before its own transfer a follower fetches the advertised bundle into refs/peer/*. The transfer from the git server
+ * then finds the wanted objects present and only exchanges refs, after which refs/peer/* is deleted. If the bundle cannot be fetched,
+ * e.g. the leader is gone or the follower lacks a prerequisite, the git server sends the pack as before.
+ */
+class PeerBundleDistributor {
+    static final String PEER_ROOT = "/dms/git-repo-peer/";
+    static final String PEER_REFS = "refs/peer/";
+    private static final String CONTEXT = "/bundles/";
+    static final String SECRET_HEADER = "X-JsDMS-Peer-Secret";
+
+    private final CuratorFramework curatorFramework;
+    private final JsDMSSpringClientProperties.PeerProperties properties;
+    private final SyncMetrics syncMetrics;
+    private final File bundleDir;
+    private final HttpServer httpServer;
+    private final ExecutorService httpExecutor;
+    private final String baseUrl;
+
+    private final Map<String, LeaderLatch> leaderLatches = new ConcurrentHashMap<String, LeaderLatch>();
+    private final Map<String, File> servedBundles = new ConcurrentHashMap<String, File>();
+    private final Map<String, Deque<String>> retainedTokens = new HashMap<String, Deque<String>>();
+    private final Map<String, String> appliedUrls = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Done after the transfer from the git server succeeded.
+     */
+    interface Transfer {
+        void completed();
+    }
+
+    private static final Transfer FOLLOWED = () -> { };
+
+    /**
+     * @param curatorFramework null to only serve and fetch bundles, without election and advertisement
+     * @throws IllegalArgumentException if peer.secret is not set, the bundles hold the full history of the repository
+     */
+    public PeerBundleDistributor(CuratorFramework curatorFramework, JsDMSSpringClientProperties.PeerProperties properties, SyncMetrics syncMetrics) throws IOException {
+        if (properties.getSecret() == null)
+            throw new IllegalArgumentException("peer.secret is not set, peer distribution is not started");
+        this.curatorFramework = curatorFramework;
+        this.properties = properties;
+        this.syncMetrics = syncMetrics;
+        this.bundleDir = Files.createTempDirectory("jsdms-bundles").toFile();
+        InetSocketAddress address = (properties.getHost() != null) ? new InetSocketAddress(properties.getHost(), properties.getPort()) : new InetSocketAddress(properties.getPort());
+        this.httpServer = HttpServer.create(address, 0);
+        this.httpExecutor = Executors.newCachedThreadPool();
+        this.httpServer.setExecutor(this.httpExecutor);
+        this.httpServer.createContext(CONTEXT, this::serve);
+        this.httpServer.start();
+        String host = (properties.getHost() != null) ? properties.getHost() : InetAddress.getLocalHost().getHostAddress();
+        this.baseUrl = "http://" + host + ":" + httpServer.getAddress().getPort() + CONTEXT;
+    }
+
+    /**
+     * Enters the leader election of the repository of the target, so it is decided by the time the first transfers finish.
+     */
+    public void join(TargetMonitor targetMonitor) {
+        if (curatorFramework != null)
+            isLeader(targetMonitor.getGitRepoName());
+    }
+
+    /**
+     * Called before a clone, fetch or pull from the git server.
+     * A follower fetches the bundle advertised for the branch, the leader remembers where the tracking refs were.
+     *
+     * @param branchName the branch the transfer is for, "master" or "deploy-*" for the whole repository
+     * @param repositoryDir the repository the objects are received into
+     * @return what to do after the transfer succeeded
+     */
+    public Transfer prepare(TargetMonitor targetMonitor, String branchName, File repositoryDir) {
+        if (curatorFramework == null)
+            return FOLLOWED;
+        String repoName = targetMonitor.getGitRepoName();
+        if (isLeader(repoName)) {
+            Map<String, ObjectId> previousRefs = readTrackingRefs(repositoryDir);
+            return () -> {
+                String url = writeBundle(repoName + "/" + branchName, repositoryDir, previousRefs);
+                if (url != null)
+                    advertise(repoName, branchName, url);
+            };
+        }
+        String url = readAdvertisement(repoName, branchName);
+        if (url != null) {
+            long started = System.nanoTime();
+            fetchBundle(url, repositoryDir);
+            syncMetrics.recordPhase(targetMonitor.getProperties().getName(), branchName, "peer-fetch", System.nanoTime() - started);
+            // the tracking refs hold the objects once the git server sent them
+            return () -> deletePeerRefs(repositoryDir);
+        }
+        return FOLLOWED;
+    }
+
+    boolean isLeader(String repoName) {
+        LeaderLatch leaderLatch = leaderLatches.computeIfAbsent(repoName, key -> {
+            LeaderLatch latch = new LeaderLatch(curatorFramework, PEER_ROOT + key + "/leader", baseUrl);
+            try {
+                latch.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return latch;
+        });
+        return leaderLatch.hasLeadership();
+    }
+
+    void advertise(String repoName, String branchName, String url) {
+        String path = PEER_ROOT + repoName + "/bundles/" + branchName;
+        byte[] data = url.getBytes(StandardCharsets.UTF_8);
+        try {
+            try {
+                curatorFramework.setData().forPath(path, data);
+            } catch (KeeperException.NoNodeException e) {
+                curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, data);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    String readAdvertisement(String repoName, String branchName) {
+        try {
+            return new String(curatorFramework.getData().forPath(PEER_ROOT + repoName + "/bundles/" + branchName), StandardCharsets.UTF_8);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return refs/remotes/origin/* of the repository, empty if it does not exist yet
+     */
+    static Map<String, ObjectId> readTrackingRefs(File repositoryDir) {
+        Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+        if (!repositoryDir.exists())
+            return refs;
+        try (Git git = Git.open(repositoryDir)) {
+            for (Ref ref : git.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_REMOTES + "origin/")) {
+                if (ref.getObjectId() != null)
+                    refs.put(ref.getName(), ref.getObjectId());
+            }
+        } catch (IOException e) {
+            // nothing to compare with, the bundle is complete
+        }
+        return refs;
+    }
+
+    /**
+     * Writes the tracking refs of the repository and the commits they have beyond the previous refs into a served bundle.
+     * The last few bundles of a key stay served for followers that read an older advertisement.
+     *
+     * @param key the bundles of a key replace each other
+     * @return the URL of the bundle, or null if no tracking ref moved
+     */
+    String writeBundle(String key, File repositoryDir, Map<String, ObjectId> previousRefs) {
+        Map<String, ObjectId> currentRefs = readTrackingRefs(repositoryDir);
+        if (currentRefs.isEmpty() || currentRefs.equals(previousRefs))
+            return null;
+        String token = UUID.randomUUID().toString();
+        File bundleFile = new File(bundleDir, token + ".bundle");
+        try (Git git = Git.open(repositoryDir);
+             RevWalk revWalk = new RevWalk(git.getRepository());
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(bundleFile))) {
+            Repository repository = git.getRepository();
+            BundleWriter bundleWriter = new BundleWriter(repository);
+            for (Map.Entry<String, ObjectId> entry : currentRefs.entrySet())
+                bundleWriter.include(entry.getKey(), entry.getValue());
+            for (ObjectId previous : previousRefs.values()) {
+                try {
+                    RevObject object = revWalk.parseAny(previous);
+                    if (object instanceof RevCommit)
+                        bundleWriter.assume((RevCommit) object);
+                } catch (MissingObjectException e) {
+                    // pruned since, the followers do not need it
+                }
+            }
+            bundleWriter.writeBundle(NullProgressMonitor.INSTANCE, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            FileUtils.deleteQuietly(bundleFile);
+            return null;
+        }
+        servedBundles.put(token, bundleFile);
+        synchronized (retainedTokens) {
+            Deque<String> tokens = retainedTokens.computeIfAbsent(key, k -> new ArrayDeque<String>());
+            tokens.addLast(token);
+            while (tokens.size() > Math.max(1, properties.getRetainedBundles())) {
+                File expired = servedBundles.remove(tokens.pollFirst());
+                if (expired != null)
+                    FileUtils.deleteQuietly(expired);
+            }
+        }
+        return baseUrl + token;
+    }
+
+    /**
+     * Fetches refs/remotes/origin/* of the bundle into refs/peer/* of the repository.
+     * A bundle already fetched into the repository is not downloaded again.
+     *
+     * @return false if the bundle could not be fetched, the transfer from the git server then brings everything
+     */
+    boolean fetchBundle(String url, File repositoryDir) {
+        if (!repositoryDir.exists())
+            return false;
+        String repositoryPath = repositoryDir.getAbsolutePath();
+        if (url.equals(appliedUrls.get(repositoryPath)))
+            return true;
+        HttpURLConnection connection = null;
+        try (Git git = Git.open(repositoryDir)) {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(properties.getTimeout());
+            connection.setReadTimeout(properties.getTimeout());
+            connection.setRequestProperty(SECRET_HEADER, properties.getSecret());
+            try (InputStream in = connection.getInputStream();
+                 Transport transport = new TransportBundleStream(git.getRepository(), new URIish(url), in)) {
+                transport.fetch(NullProgressMonitor.INSTANCE, Collections.singletonList(
+                        new RefSpec("+" + Constants.R_REMOTES + "origin/*:" + PEER_REFS + "*")));
+            }
+            appliedUrls.put(repositoryPath, url);
+            return true;
+        } catch (IOException | URISyntaxException e) {
+            System.err.println(repositoryPath + ": peer bundle " + url + " not fetched, using the git server: " + e.getMessage());
+            return false;
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    /**
+     * Deletes refs/peer/* of the repository.
+     */
+    static void deletePeerRefs(File repositoryDir) {
+        if (!repositoryDir.exists())
+            return;
+        try (Git git = Git.open(repositoryDir)) {
+            Repository repository = git.getRepository();
+            for (Ref ref : repository.getRefDatabase().getRefsByPrefix(PEER_REFS)) {
+                RefUpdate refUpdate = repository.updateRef(ref.getName());
+                refUpdate.setForceUpdate(true);
+                refUpdate.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!isAuthorized(exchange)) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            String token = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            File bundleFile = servedBundles.get(token);
+            if (!"GET".equals(exchange.getRequestMethod()) || bundleFile == null || !bundleFile.exists()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, bundleFile.length());
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(bundleFile.toPath(), out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        String secret = properties.getSecret();
+        String presented = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+        return presented != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void stop() {
+        for (LeaderLatch leaderLatch : leaderLatches.values()) {
+            try {
+                leaderLatch.close();
+            } catch (IOException | IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+        httpServer.stop(0);
+        httpExecutor.shutdown();
+        FileUtils.deleteQuietly(bundleDir);
+    }
+}
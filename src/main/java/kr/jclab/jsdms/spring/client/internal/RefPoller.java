@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change source for deployments without ZooKeeper: reads the ref advertisement of every target periodically.
+ *
+ * A check is one ls-remote, nothing is fetched unless a deploy-* branch differs from what was synced.
+ * Each target polls at min-interval after its refs moved and doubles the interval up to max-interval while they do not.
+ * Every delay is jittered so targets do not hit the git server in lockstep,
+ * and the pool size of the scheduler bounds how many checks run at once.
+ */
+class RefPoller {
+    private final ServiceImpl service;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double jitter;
+
+    public RefPoller(ServiceImpl service, JsDMSSpringClientProperties.PollingProperties properties) {
+        this.service = service;
+        this.scheduler = new ScheduledThreadPoolExecutor(properties.getMaxConcurrentChecks());
+        this.minInterval = properties.getMinInterval();
+        this.maxInterval = Math.max(properties.getMinInterval(), properties.getMaxInterval());
+        this.jitter = Math.min(1.0, Math.max(0.0, properties.getJitter()));
+    }
+
+    /**
+     * Starts polling the target once its startup sync is over.
+     */
+    public void add(TargetMonitor targetMonitor) {
+        TargetPoll targetPoll = new TargetPoll(targetMonitor);
+        targetMonitor.getInitialSyncFuture().whenComplete((result, e) -> {
+            // spread the first checks of all targets over one interval
+            schedule(targetPoll, (long) (ThreadLocalRandom.current().nextDouble() * minInterval));
+        });
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(TargetPoll targetPoll, long delay) {
+        if (scheduler.isShutdown())
+            return;
+        scheduler.schedule(targetPoll, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long jittered(long interval) {
+        double factor = 1.0 - jitter + 2.0 * jitter * ThreadLocalRandom.current().nextDouble();
+        return (long) (interval * factor);
+    }
+
+    private class TargetPoll implements Runnable {
+        private final TargetMonitor targetMonitor;
+        private final Map<String, ObjectId> lastAdvertised = new HashMap<String, ObjectId>();
+        private long interval = minInterval;
+
+        TargetPoll(TargetMonitor targetMonitor) {
+            this.targetMonitor = targetMonitor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (check())
+                    interval = minInterval;
+                else
+                    interval = Math.min(maxInterval, interval * 2);
+            } catch (GitAPIException e) {
+                e.printStackTrace();
+                interval = Math.min(maxInterval, interval * 2);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                schedule(this, jittered(interval));
+            }
+        }
+
+        /**
+         * @return true if a deploy branch moved since the last check
+         */
+        private boolean check() throws GitAPIException {
+            boolean moved = false;
+            Map<String, ObjectId> advertised = new HashMap<String, ObjectId>();
+            for (Ref ref : service.lsRemote(targetMonitor).values()) {
+                if (!ref.getName().startsWith(Constants.R_HEADS + "deploy-"))
+                    continue;
+                String branchName = ref.getName().substring(Constants.R_HEADS.length());
+                ObjectId objectId = ref.getObjectId();
+                advertised.put(branchName, objectId);
+                service.markBranchPresent(targetMonitor, branchName);
+                if (!objectId.equals(lastAdvertised.get(branchName)))
+                    moved = true;
+                if (!targetMonitor.isSyncedTo(branchName, objectId.name())) {
+                    targetMonitor.markNotified(branchName);
+                    service.asyncPullBranch(targetMonitor, branchName);
+                }
+            }
+            for (String branchName : targetMonitor.getKnownBranches()) {
+                if (!advertised.containsKey(branchName))
+                    service.requestBranchRemoval(targetMonitor, branchName, true);
+            }
+            // the first check only learns the refs
+            boolean first = lastAdvertised.isEmpty();
+            lastAdvertised.clear();
+            lastAdvertised.putAll(advertised);
+            return moved && !first;
+        }
+    }
+}
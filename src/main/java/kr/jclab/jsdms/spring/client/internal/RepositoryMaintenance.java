@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts the master and branch repositories of idle targets with a JGit gc (pack refs, repack, prune).
+ *
+ * Every interval each target that has no queued sync and ran no git command for idle-time is visited.
+ * A repository is only collected if its loose objects, pack files or loose object bytes exceed the thresholds.
+ * The gc runs as a task of the target's {@link OrderingExecutor} key, so it never overlaps a sync of the target,
+ * and the repositories are collected one after another, so at most one sync thread is busy with maintenance.
+ */
+class RepositoryMaintenance {
+    private final ServiceImpl service;
+    private final JsDMSSpringClientProperties.MaintenanceProperties properties;
+    private final SyncMetrics syncMetrics;
+    private final List<TargetMonitor> targetMonitors = new CopyOnWriteArrayList<TargetMonitor>();
+    private final ScheduledExecutorService scheduler;
+
+    public RepositoryMaintenance(ServiceImpl service, JsDMSSpringClientProperties.MaintenanceProperties properties, SyncMetrics syncMetrics) {
+        this.service = service;
+        this.properties = properties;
+        this.syncMetrics = syncMetrics;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jsdms-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void add(TargetMonitor targetMonitor) {
+        targetMonitors.add(targetMonitor);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::visitIdleTargets, properties.getInterval(), properties.getInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void visitIdleTargets() {
+        try {
+            for (TargetMonitor targetMonitor : targetMonitors) {
+                for (String branchName : repositoryNames(targetMonitor)) {
+                    // a sync that arrived meanwhile ends the idle window
+                    if (!isIdle(targetMonitor))
+                        break;
+                    File repositoryDir = "master".equals(branchName) ? targetMonitor.getResourceMasterDir() : targetMonitor.getBranchWorkDir(branchName);
+                    CompletableFuture<Void> done = new CompletableFuture<Void>();
+                    boolean accepted = service.execute(() -> {
+                        try {
+                            maintain(targetMonitor.getProperties().getName(), branchName, repositoryDir);
+                        } finally {
+                            done.complete(null);
+                        }
+                    }, targetMonitor);
+                    // a full queue is no idle time, and the dropped task would never complete
+                    if (!accepted)
+                        break;
+                    done.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        } catch (ExecutionException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isIdle(TargetMonitor targetMonitor) {
+        return targetMonitor.getIdleNanos() >= TimeUnit.MILLISECONDS.toNanos(properties.getIdleTime())
+                && service.getQueuedTaskCount(targetMonitor) == 0;
+    }
+
+    /**
+     * @return "master" and the deploy branches that have a repository of their own
+     */
+    private static List<String> repositoryNames(TargetMonitor targetMonitor) {
+        List<String> names = new ArrayList<String>();
+        names.add("master");
+        // bare targets have no branch repositories, shared ones keep their objects in master
+        if (!targetMonitor.isBare() && !targetMonitor.isSharedObjectStore())
+            names.addAll(targetMonitor.getSyncedBranches());
+        return names;
+    }
+
+    /**
+     * Collects the repository if it exceeds a threshold.
+     *
+     * @return true if a gc ran
+     */
+    boolean maintain(String targetName, String branchName, File repositoryDir) {
+        if (!repositoryDir.exists())
+            return false;
+        try (Git git = Git.open(repositoryDir)) {
+            Properties before = git.gc().getStatistics();
+            if (!exceedsThresholds(before))
+                return false;
+            long started = System.nanoTime();
+            // no sync of the target runs meanwhile, the packs the repack replaced can go at once (in memory, not saved)
+            git.getRepository().getConfig().setString(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_PRUNEPACKEXPIRE, "now");
+            Properties after = git.gc()
+                    .setExpire(new Date(System.currentTimeMillis() - properties.getPruneExpire()))
+                    .call();
+            long elapsed = System.nanoTime() - started;
+            long reclaimed = objectBytes(before) - objectBytes(after);
+            syncMetrics.recordMaintenance(targetName, branchName, elapsed, reclaimed);
+            System.out.println(repositoryDir.getAbsolutePath() + ": gc took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms, reclaimed " + reclaimed + " bytes"
+                    + " (loose objects " + before.get("numberOfLooseObjects") + " -> " + after.get("numberOfLooseObjects")
+                    + ", pack files " + before.get("numberOfPackFiles") + " -> " + after.get("numberOfPackFiles") + ")");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (GitAPIException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private boolean exceedsThresholds(Properties statistics) {
+        return count(statistics, "numberOfLooseObjects") > properties.getLooseObjects()
+                || count(statistics, "numberOfPackFiles") > properties.getPackFiles()
+                || count(statistics, "sizeOfLooseObjects") > properties.getLooseSize();
+    }
+
+    private static long objectBytes(Properties statistics) {
+        return count(statistics, "sizeOfLooseObjects") + count(statistics, "sizeOfPackedObjects");
+    }
+
+    private static long count(Properties statistics, String key) {
+        Object value = statistics.get(key);
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
+}
@@ -16,44 +16,127 @@
 package kr.jclab.jsdms.spring.client.internal;
 
 import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import kr.jclab.jsdms.spring.client.event.ChangeEventOverflowStrategy;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEvent;
 import kr.jclab.jsdms.spring.client.event.RepositoryChangeHandler;
+import kr.jclab.jsdms.spring.client.event.RepositoryRemovalHandler;
 import kr.jclab.jsdms.spring.client.service.JsDMSSpringClientService;
+import kr.jclab.jsdms.spring.client.service.RepositorySnapshot;
 import com.jcraft.jsch.JSchException;
 import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.ZooKeeper;
 import org.I0Itec.zkclient.exception.ZkMarshallingError;
 import org.I0Itec.zkclient.serialize.ZkSerializer;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.*;
 import org.eclipse.jgit.api.errors.*;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.reactivestreams.Publisher;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 public class ServiceImpl implements JsDMSSpringClientService {
     private JsDMSSpringClientProperties properties;
 
-    private ExecutorService executorService;
+    private FairSyncExecutor executorService;
     private OrderingExecutor executor;
+    private ScheduledExecutorService retryScheduler;
+    private BlobCache blobCache;
+    private ExecutorService eventExecutorService;
+    private ChangeEventBroadcaster changeEventBroadcaster;
+    private HandlerDispatcher handlerDispatcher;
+    private SyncMetrics syncMetrics;
+    private RefPoller refPoller = null;
+    private LocalRefWatcher localRefWatcher = null;
+    private FetchAdmission fetchAdmission;
+    private PeerBundleDistributor peerBundleDistributor = null;
+    private RepositoryMaintenance repositoryMaintenance = null;
+    private BranchEvictor branchEvictor = null;
 
+    private ZkConnection zkConnection = null;
     private ZkClient zkClient = null;
+    private CuratorFramework curatorFramework = null;
 
     private Map<String, TargetMonitor> targetMonitors = new HashMap();
 
 
-    private Set<RepositoryChangeHandler> repositoryChangeHandlers = new HashSet<RepositoryChangeHandler>();
-
-
     public ServiceImpl(JsDMSSpringClientProperties properties) {
+        this(properties, SyncMetrics.NOOP);
+    }
+
+    public ServiceImpl(JsDMSSpringClientProperties properties, SyncMetrics syncMetrics) {
         this.properties = properties;
-        executorService = Executors.newFixedThreadPool(2);
-        executor = new OrderingExecutor(executorService);
+        this.syncMetrics = syncMetrics;
+        this.blobCache = new BlobCache(properties.getBlobCache().getMaxSize());
+        this.eventExecutorService = Executors.newCachedThreadPool();
+        this.changeEventBroadcaster = new ChangeEventBroadcaster(this.eventExecutorService);
+        this.handlerDispatcher = new HandlerDispatcher(properties.getHandler().getPoolSize(), properties.getHandler().getTimeout(), syncMetrics);
+        JsDMSSpringClientProperties.ExecutorProperties executorProperties = properties.getExecutor();
+        executorService = new FairSyncExecutor(
+                executorProperties.getPoolSize(),
+                key -> (key instanceof TargetMonitor) ? ((TargetMonitor) key).getWeight() : 1,
+                key -> (key instanceof TargetMonitor) && ((TargetMonitor) key).hasUrgentWork());
+        executor = new OrderingExecutor(
+                executorService,
+                executorProperties.getQueueCapacity(),
+                OrderingExecutor.OverflowPolicy.valueOf(executorProperties.getOverflowPolicy().toUpperCase()));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jsdms-sync-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncMetrics.bindSyncPool(executorService::getActiveCount, executorService::getPoolSize, () -> executorService.getQueue().size());
+
+        // targets start cloning as soon as they are created, the semaphore has to be there before
+        if(isFetchAdmissionCoordinated() || isPeerDistribution() || (isZookeeperSource() && isTreeCacheWatcher())) {
+            this.curatorFramework = CuratorFrameworkFactory.newClient(properties.getZookeeper().getConnectString(), 60000, 5000, new ExponentialBackoffRetry(1000, 3));
+            this.curatorFramework.start();
+        }
+        this.fetchAdmission = new FetchAdmission(this.curatorFramework, properties.getFetchAdmission());
+        if(isPeerDistribution()) {
+            try {
+                this.peerBundleDistributor = new PeerBundleDistributor(this.curatorFramework, properties.getPeer(), syncMetrics);
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        // startup already finds branches deleted from the remote
+        if(properties.getEviction().isEnabled()) {
+            this.branchEvictor = new BranchEvictor(this, this.handlerDispatcher, properties.getEviction());
+        }
 
         for(JsDMSSpringClientProperties.TargetProperties targetProperties : this.properties.getTargets()) {
             String gitUri = targetProperties.getGitUri();
@@ -63,9 +146,24 @@ public class ServiceImpl implements JsDMSSpringClientService {
                 throw new IllegalArgumentException("Wrong git uri: " + gitUri);
             }
             String gitRepoName = gitUri.substring(fpos + 1, (dpot < 0) ? gitUri.length() : dpot);
-            ZookeeperTargetMonitor targetMonitor = null;
+            TargetMonitor targetMonitor = null;
             try {
-                targetMonitor = new ZookeeperTargetMonitor(this, targetProperties, gitRepoName);
+                if(isPollingSource() || isLocalSource()) {
+                    targetMonitor = new TargetMonitor(this, targetProperties, gitRepoName);
+                }else if(isTreeCacheWatcher()) {
+                    targetMonitor = new TreeCacheTargetMonitor(this, targetProperties, gitRepoName);
+                }else{
+                    targetMonitor = new ZookeeperTargetMonitor(this, targetProperties, gitRepoName);
+                }
+                TargetMonitor monitor = targetMonitor;
+                syncMetrics.bindTarget(targetProperties.getName(), () -> executor.getQueuedTaskCount(
+                        key -> key == monitor || (key instanceof BranchKey && ((BranchKey) key).getTargetMonitor() == monitor)));
+                if(peerBundleDistributor != null) {
+                    peerBundleDistributor.join(targetMonitor);
+                }
+                if(branchEvictor != null) {
+                    branchEvictor.add(targetMonitor);
+                }
                 targetMonitor.init();
                 targetMonitors.put(targetProperties.getName(), targetMonitor);
             } catch (JSchException e) {
@@ -75,8 +173,36 @@ public class ServiceImpl implements JsDMSSpringClientService {
             }
         }
 
-        if("zookeeper".compareToIgnoreCase(properties.getSource()) == 0) {
-            this.zkClient = new ZkClient(properties.getZookeeper().getConnectString(), 60000, 5000, new ZkSerializer() {
+        if(branchEvictor != null) {
+            this.branchEvictor.start();
+        }
+        if(properties.getMaintenance().isEnabled()) {
+            this.repositoryMaintenance = new RepositoryMaintenance(this, properties.getMaintenance(), syncMetrics);
+            for(TargetMonitor targetMonitor : targetMonitors.values()) {
+                this.repositoryMaintenance.add(targetMonitor);
+            }
+            this.repositoryMaintenance.start();
+        }
+
+        if(isPollingSource()) {
+            this.refPoller = new RefPoller(this, properties.getPolling());
+            for(TargetMonitor targetMonitor : targetMonitors.values()) {
+                this.refPoller.add(targetMonitor);
+            }
+        }else if(isLocalSource()) {
+            try {
+                this.localRefWatcher = new LocalRefWatcher(this);
+                for(TargetMonitor targetMonitor : targetMonitors.values()) {
+                    this.localRefWatcher.add(targetMonitor);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }else if(isZookeeperSource() && isTreeCacheWatcher()) {
+            onZookeeperConnected();
+        }else if(isZookeeperSource()) {
+            this.zkConnection = new ZkConnection(properties.getZookeeper().getConnectString(), 60000);
+            this.zkClient = new ZkClient(this.zkConnection, 5000, new ZkSerializer() {
 
                 @Override
                 public byte[] serialize(Object data) throws ZkMarshallingError {
@@ -95,10 +221,57 @@ public class ServiceImpl implements JsDMSSpringClientService {
         }
     }
 
+    public JsDMSSpringClientProperties getProperties() {
+        return this.properties;
+    }
+
+    BlobCache getBlobCache() {
+        return this.blobCache;
+    }
+
     public ZkClient getZkClient() {
         return this.zkClient;
     }
 
+    /**
+     * @return the ZooKeeper handle under the ZkClient, for pipelined async calls ZkClient does not offer.
+     * It changes when the session expires, so do not keep it.
+     */
+    public ZooKeeper getZooKeeper() {
+        return (this.zkConnection != null) ? this.zkConnection.getZookeeper() : null;
+    }
+
+    public CuratorFramework getCuratorFramework() {
+        return this.curatorFramework;
+    }
+
+    private boolean isZookeeperSource() {
+        return "zookeeper".equalsIgnoreCase(properties.getSource());
+    }
+
+    private boolean isFetchAdmissionCoordinated() {
+        JsDMSSpringClientProperties.ZookeeperProperties zookeeperProperties = properties.getZookeeper();
+        return properties.getFetchAdmission().getMaxConcurrent() > 0 && zookeeperProperties != null && zookeeperProperties.getConnectString() != null;
+    }
+
+    private boolean isPeerDistribution() {
+        JsDMSSpringClientProperties.ZookeeperProperties zookeeperProperties = properties.getZookeeper();
+        return properties.getPeer().isEnabled() && zookeeperProperties != null && zookeeperProperties.getConnectString() != null;
+    }
+
+    private boolean isPollingSource() {
+        return "polling".equalsIgnoreCase(properties.getSource());
+    }
+
+    private boolean isLocalSource() {
+        return "local".equalsIgnoreCase(properties.getSource());
+    }
+
+    private boolean isTreeCacheWatcher() {
+        JsDMSSpringClientProperties.ZookeeperProperties zookeeperProperties = properties.getZookeeper();
+        return zookeeperProperties != null && "tree-cache".equalsIgnoreCase(zookeeperProperties.getWatcher());
+    }
+
     private void onZookeeperConnected() {
         for(JsDMSSpringClientProperties.TargetProperties targetProperties : this.properties.getTargets()) {
             String gitUri = targetProperties.getGitUri();
@@ -121,12 +294,179 @@ public class ServiceImpl implements JsDMSSpringClientService {
         executor.execute(task);
     }
 
+    /**
+     * Runs the task in order with the syncs of the target.
+     *
+     * @return false if the task was discarded because the executor is full
+     */
+    boolean execute(Runnable task, TargetMonitor targetMonitor) {
+        return executor.execute(task, targetMonitor);
+    }
+
+    /**
+     * @return sync tasks of the target waiting to run
+     */
+    int getQueuedTaskCount(TargetMonitor targetMonitor) {
+        return executor.getQueuedTaskCount(key -> key == targetMonitor);
+    }
+
+    /**
+     * Removes the directory of the deploy branch after the grace period, if eviction is enabled.
+     *
+     * @param deleted the status node or the remote ref of the branch is gone, otherwise the branch is only stale
+     */
+    void requestBranchRemoval(TargetMonitor targetMonitor, String branchName, boolean deleted) {
+        if(branchEvictor != null) {
+            branchEvictor.requestRemoval(targetMonitor, branchName, deleted);
+        }
+    }
+
+    /**
+     * Calls off the removal of a deleted branch, its status node or remote ref exists again.
+     */
+    void markBranchPresent(TargetMonitor targetMonitor, String branchName) {
+        if(branchEvictor != null) {
+            branchEvictor.present(targetMonitor, branchName);
+        }
+    }
+
     public void asyncDownloadMasterBranch(TargetMonitor targetMonitor) {
-        executor.execute(new DownloadMasterBranchTask(targetMonitor), targetMonitor);
+        fetchAdmission.delay(() -> {
+            Runnable onDropped = () -> targetMonitor.failInitialSync(new RejectedExecutionException("Sync queue is full"));
+            boolean accepted;
+            try {
+                accepted = fetchAdmission.admit(targetMonitor, null,
+                        admitted -> executor.execute(new DownloadMasterBranchTask(targetMonitor, admitted), targetMonitor), onDropped);
+            } catch (RejectedExecutionException e) {
+                accepted = false;
+            }
+            if(!accepted) {
+                onDropped.run();
+            }
+        });
     }
 
+    /**
+     * Pulls a branch whose change was noticed, after the start delay of the fetch admission.
+     * There may be no other notification of the change, so a pull the full queue drops is queued again retry-delay later.
+     */
     public void asyncPullBranch(TargetMonitor targetMonitor, String branchName) {
-        executor.execute(new PullBranchTask(targetMonitor, branchName), targetMonitor);
+        fetchAdmission.delay(() -> queueNoticedPull(targetMonitor, branchName));
+    }
+
+    private void queueNoticedPull(TargetMonitor targetMonitor, String branchName) {
+        boolean accepted;
+        try {
+            accepted = queuePull(targetMonitor, branchName, false, () -> retryNoticedPull(targetMonitor, branchName));
+        } catch (RejectedExecutionException e) {
+            accepted = false;
+        }
+        if(!accepted) {
+            retryNoticedPull(targetMonitor, branchName);
+        }
+    }
+
+    private void retryNoticedPull(TargetMonitor targetMonitor, String branchName) {
+        if(executorService.isShutdown())
+            return;
+        long retryDelay = properties.getExecutor().getRetryDelay();
+        System.err.println(targetMonitor.getRepoDir().getAbsolutePath() + ": branch(" + branchName + ") pull dropped, the sync queue is full, queued again in " + retryDelay + "ms");
+        try {
+            retryScheduler.schedule(() -> queueNoticedPull(targetMonitor, branchName), retryDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * @param urgent user-initiated pull, the target is served ahead of bulk sync of other targets until it starts
+     * @return false if the pull was dropped because the executor is full
+     */
+    public boolean asyncPullBranch(TargetMonitor targetMonitor, String branchName, boolean urgent) {
+        return queuePull(targetMonitor, branchName, urgent,
+                () -> targetMonitor.completeSyncFutures(branchName, targetMonitor.takeSyncFutures(branchName), new RejectedExecutionException("Sync queue is full")));
+    }
+
+    /**
+     * Queues the pull once the fetch admission admits the node, the task holds the lease until it is done.
+     *
+     * @param onDropped called if the pull is dropped after the lease wait
+     * @return false if the pull was dropped at once because the executor is full
+     */
+    boolean queuePull(TargetMonitor targetMonitor, String branchName, boolean urgent, Runnable onDropped) {
+        if(branchEvictor != null) {
+            branchEvictor.keep(targetMonitor, branchName);
+        }
+        if(urgent) {
+            targetMonitor.markUrgent(branchName);
+        }
+        boolean batched = targetMonitor.isBatchedSync();
+        if(batched) {
+            targetMonitor.requestBatchedSync(branchName);
+        }
+        Object coalesceKey = batched ? targetMonitor : new BranchKey(targetMonitor, branchName);
+        return fetchAdmission.admit(targetMonitor, coalesceKey, admitted -> {
+            boolean accepted;
+            if(batched) {
+                accepted = executor.executeCoalesced(new BatchedSyncTask(targetMonitor, admitted), targetMonitor, coalesceKey, ServiceImpl::mergeBatchedSyncs);
+            }else{
+                accepted = executor.executeCoalesced(new PullBranchTask(targetMonitor, branchName, false, admitted), targetMonitor, coalesceKey, ServiceImpl::mergePulls);
+            }
+            if(urgent) {
+                executorService.promote(targetMonitor);
+            }
+            return accepted;
+        }, onDropped);
+    }
+
+    /**
+     * Updates the branch directory from objects the master repository already fetched, without any network round trip.
+     *
+     * @return false if the update was dropped because the executor is full
+     */
+    private boolean asyncUpdateBranchLocally(TargetMonitor targetMonitor, String branchName) {
+        if(branchEvictor != null) {
+            branchEvictor.keep(targetMonitor, branchName);
+        }
+        return executor.executeCoalesced(new PullBranchTask(targetMonitor, branchName, true, FetchAdmission.UNCOORDINATED), targetMonitor, new BranchKey(targetMonitor, branchName), ServiceImpl::mergePulls);
+    }
+
+    /**
+     * Merges a pull into the pending one of the branch. A pending pull from the remote also brings what a later pull
+     * or local update would, so it is kept; otherwise the latest wins. The lease of the other one is released.
+     */
+    private static Runnable mergePulls(Runnable pending, Runnable submitted) {
+        if(pending instanceof PullBranchTask && !((PullBranchTask) pending).localOnly)
+            return keep(pending, submitted);
+        return keep(submitted, pending);
+    }
+
+    /**
+     * Keeps the pending batched sync, it drains the requests of the target when it starts.
+     */
+    private static Runnable mergeBatchedSyncs(Runnable pending, Runnable submitted) {
+        return keep(pending, submitted);
+    }
+
+    private static Runnable keep(Runnable kept, Runnable merged) {
+        if(merged instanceof AdmittedTask) {
+            ((AdmittedTask) merged).admitted.close();
+        }
+        return kept;
+    }
+
+    /**
+     * @return number of pull requests merged into an already pending pull of the same branch
+     */
+    public long getMergedPullRequestCount() {
+        return executor.getMergedTaskCount();
+    }
+
+    /**
+     * @return number of pull requests dropped because the executor rejected them
+     */
+    public long getDroppedPullRequestCount() {
+        return executor.getDroppedTaskCount();
     }
 
     private <T extends TransportCommand> T configTransportCommand(TargetMonitor targetMonitor, T transportCommand) {
@@ -139,15 +479,112 @@ public class ServiceImpl implements JsDMSSpringClientService {
         return transportCommand;
     }
 
-    private class DownloadMasterBranchTask implements Runnable {
+    /**
+     * Calls a local git command and records its duration as the phase.
+     */
+    private <T> T timed(TargetMonitor targetMonitor, String branchName, String phase, GitCommand<T> command) throws GitAPIException {
+        long started = System.nanoTime();
+        targetMonitor.markActivity();
+        try {
+            return command.call();
+        } finally {
+            targetMonitor.markActivity();
+            syncMetrics.recordPhase(targetMonitor.getProperties().getName(), branchName, phase, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Calls a clone, fetch or pull within the admission its sync task holds, and records its duration as the phase and what it received.
+     * With peer distribution a follower first takes what the leader received, the leader shares what it received afterwards.
+     *
+     * @param repositoryDir the repository the objects are received into
+     */
+    private <T> T timedTransfer(TargetMonitor targetMonitor, String branchName, String phase, File repositoryDir, TransportCommand<?, T> command) throws GitAPIException {
+        TransferCounter transferCounter = new TransferCounter(repositoryDir);
+        if(command instanceof FetchCommand) {
+            ((FetchCommand) command).setProgressMonitor(transferCounter);
+        }else if(command instanceof PullCommand) {
+            ((PullCommand) command).setProgressMonitor(transferCounter);
+        }else if(command instanceof CloneCommand) {
+            ((CloneCommand) command).setProgressMonitor(transferCounter);
+        }
+        PeerBundleDistributor.Transfer peerTransfer = null;
+        try {
+            // a follower that waited for its turn finds what the leader received meanwhile
+            if(peerBundleDistributor != null) {
+                peerTransfer = peerBundleDistributor.prepare(targetMonitor, branchName, repositoryDir);
+            }
+            T result = timed(targetMonitor, branchName, phase, command);
+            // advertised before the next node is admitted
+            if(peerTransfer != null) {
+                peerTransfer.completed();
+            }
+            return result;
+        } finally {
+            syncMetrics.recordReceived(targetMonitor.getProperties().getName(), transferCounter.getReceivedObjects(), transferCounter.getReceivedBytes());
+        }
+    }
+
+    /**
+     * Reads the branch refs the remote advertises, without fetching anything.
+     *
+     * @return refs/heads/* of the remote by ref name
+     */
+    Map<String, Ref> lsRemote(TargetMonitor targetMonitor) throws GitAPIException {
+        return configTransportCommand(targetMonitor, Git.lsRemoteRepository())
+                .setRemote(targetMonitor.getProperties().getGitUri())
+                .setHeads(true)
+                .callAsMap();
+    }
+
+    /**
+     * @return true if every advertised branch accepted by the filter already has the same value under refs/remotes/origin,
+     * so a fetch would not bring anything
+     */
+    private boolean isTrackingUpToDate(Repository repository, Map<String, Ref> remoteRefs, Predicate<String> branchFilter) throws IOException {
+        for(Ref remoteRef : remoteRefs.values()) {
+            String branchName = remoteRef.getName().substring(Constants.R_HEADS.length());
+            if(!branchFilter.test(branchName))
+                continue;
+            Ref trackingRef = repository.exactRef(Constants.R_REMOTES + "origin/" + branchName);
+            if(trackingRef == null || !remoteRef.getObjectId().equals(trackingRef.getObjectId()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A sync task queued with the fetch admission of its node, the lease is released when the task is done.
+     */
+    private abstract static class AdmittedTask implements Runnable {
+        final FetchAdmission.Admitted admitted;
+
+        AdmittedTask(FetchAdmission.Admitted admitted) {
+            this.admitted = admitted;
+        }
+
+        @Override
+        public final void run() {
+            try {
+                runAdmitted();
+            } finally {
+                admitted.close();
+            }
+        }
+
+        abstract void runAdmitted();
+    }
+
+    private class DownloadMasterBranchTask extends AdmittedTask {
         TargetMonitor targetMonitor;
 
-        public DownloadMasterBranchTask(TargetMonitor targetMonitor) {
+        public DownloadMasterBranchTask(TargetMonitor targetMonitor, FetchAdmission.Admitted admitted) {
+            super(admitted);
             this.targetMonitor = targetMonitor;
         }
 
         @Override
-        public void run() {
+        void runAdmitted() {
             Git git = null;
             TransportConfigCallback transportConfigCallback = targetMonitor.getSshTransportConfigCallback();
             CredentialsProvider credentialsProvider = targetMonitor.getCredentialsProvider();
@@ -158,23 +595,43 @@ public class ServiceImpl implements JsDMSSpringClientService {
                 } catch (IOException e) {
                     System.err.println(resourceDir.getAbsolutePath() + ": start download master branch because of " + e.getMessage());
                 }
+                Map<String, Ref> remoteRefs = (git != null) ? lsRemote(targetMonitor) : null;
+                if(remoteRefs != null) {
+                    requestRemovalOfDeletedBranches(remoteRefs);
+                }
+                if(git != null && targetMonitor.hasSyncState() && warmStart(git, remoteRefs)) {
+                    return;
+                }
                 if(git != null) {
                     System.out.println(resourceDir.getAbsolutePath() + ": master branch already downloaded");
 
-                    FetchCommand fetchCommand = configTransportCommand(targetMonitor, git.fetch());
-                    FetchResult fetchResult = fetchCommand.call();
-                    System.out.println(resourceDir.getAbsolutePath() + ": Fetch complete");
+                    if(isMasterUpToDate(git.getRepository(), remoteRefs)) {
+                        System.out.println(resourceDir.getAbsolutePath() + ": remote unchanged, skip fetch and pull");
+                    }else{
+                        // one turn for the fetch and the pull
+                        FetchCommand fetchCommand = configTransportCommand(targetMonitor, git.fetch());
+                        FetchResult fetchResult = timedTransfer(targetMonitor, "master", "fetch", resourceDir, fetchCommand);
+                        System.out.println(resourceDir.getAbsolutePath() + ": Fetch complete");
 
-                    PullCommand pullCommand = configTransportCommand(targetMonitor, git.pull());
-                    PullResult pullResult = pullCommand.call();
-                    System.out.println(resourceDir.getAbsolutePath() + ": Pull complete");
+                        if(!targetMonitor.isBare()) {
+                            PullCommand pullCommand = configTransportCommand(targetMonitor, git.pull());
+                            PullResult pullResult = timedTransfer(targetMonitor, "master", "pull", resourceDir, pullCommand);
+                            System.out.println(resourceDir.getAbsolutePath() + ": Pull complete");
+                        }
+                    }
 
+                }else if(targetMonitor.isDeployFetchScope()) {
+                    git = cloneDeployBranches(resourceDir);
+                    System.out.println(resourceDir.getAbsolutePath() + ": download complete (master and deploy-* only)");
+                }else if(targetMonitor.isBare()) {
+                    git = cloneBare(resourceDir);
+                    System.out.println(resourceDir.getAbsolutePath() + ": download complete (bare)");
                 }else{
                     CloneCommand cloneCommand = configTransportCommand(targetMonitor, Git.cloneRepository());
                     cloneCommand.setURI(targetMonitor.getProperties().getGitUri());
                     cloneCommand.setDirectory(targetMonitor.getResourceMasterDir());
                     cloneCommand.setBranch("master");
-                    git = cloneCommand.call();
+                    git = timedTransfer(targetMonitor, "master", "clone", resourceDir, cloneCommand);
                     System.out.println(resourceDir.getAbsolutePath() + ": download complete");
                 }
 
@@ -182,52 +639,334 @@ public class ServiceImpl implements JsDMSSpringClientService {
                         .setListMode(ListBranchCommand.ListMode.REMOTE)
                         .call();
                 System.out.println(resourceDir.getAbsolutePath() + ": Found branches: " + branchList);
+                List<String> deployBranches = new ArrayList<String>();
                 for(Ref ref : branchList) {
                     String name = ref.getName();
                     int bpos = name.lastIndexOf("/");
                     if(bpos >= 0) {
                         String branchName = name.substring(bpos + 1);
-                        if (branchName.startsWith("deploy-")) {
-                            asyncPullBranch(targetMonitor, branchName);
+                        if (!branchName.startsWith("deploy-")) {
+                            continue;
+                        }
+                        // fetches do not prune, the tracking ref of a branch deleted from the remote stays
+                        if (remoteRefs != null && !remoteRefs.containsKey(Constants.R_HEADS + branchName)) {
+                            continue;
+                        }
+                        if (targetMonitor.isRemovedAt(branchName, ref.getObjectId())) {
+                            continue;
                         }
+                        deployBranches.add(branchName);
+                        if (targetMonitor.isBranchUpToDate(branchName, ref.getObjectId())) {
+                            targetMonitor.completeSyncFutures(branchName, Collections.emptyList(), null);
+                            continue;
+                        }
+                        syncFoundBranch(branchName, targetMonitor.isBatchedSync() || targetMonitor.isBare());
                     }
                 }
+                targetMonitor.startInitialSync(deployBranches);
             } catch (InvalidRemoteException e) {
                 e.printStackTrace();
+                targetMonitor.failInitialSync(e);
             } catch (TransportException e) {
                 e.printStackTrace();
+                targetMonitor.failInitialSync(e);
             } catch (GitAPIException e) {
                 e.printStackTrace();
+                targetMonitor.failInitialSync(e);
+            } catch (IOException e) {
+                e.printStackTrace();
+                targetMonitor.failInitialSync(e);
+            } catch (URISyntaxException e) {
+                e.printStackTrace();
+                targetMonitor.failInitialSync(e);
             } finally {
                 if(git != null) {
                     git.close();
                 }
             }
         }
+
+        /**
+         * Queues the first sync of a branch found at startup. If the executor drops it, the initial sync of the branch fails
+         * instead of never completing, so the change sources that wait for it still start.
+         *
+         * @param locally update from what master already fetched
+         */
+        private void syncFoundBranch(String branchName, boolean locally) {
+            boolean accepted;
+            try {
+                accepted = locally ? asyncUpdateBranchLocally(targetMonitor, branchName) : asyncPullBranch(targetMonitor, branchName, false);
+            } catch (RejectedExecutionException e) {
+                accepted = false;
+            }
+            if(!accepted) {
+                targetMonitor.getInitialSyncFuture(branchName).completeExceptionally(new RejectedExecutionException("Sync queue is full"));
+            }
+        }
+
+        /**
+         * Lets the branches synced in an earlier run that the remote no longer advertises be removed.
+         */
+        private void requestRemovalOfDeletedBranches(Map<String, Ref> remoteRefs) {
+            for(String branchName : targetMonitor.getKnownBranches()) {
+                if(!remoteRefs.containsKey(Constants.R_HEADS + branchName)) {
+                    requestBranchRemoval(targetMonitor, branchName, true);
+                }
+            }
+        }
+
+        /**
+         * @return true if the fetch would not move any tracking ref in scope and the checked out master is already at origin/master
+         */
+        private boolean isMasterUpToDate(Repository repository, Map<String, Ref> remoteRefs) throws IOException {
+            boolean deployOnly = targetMonitor.isDeployFetchScope();
+            if(!isTrackingUpToDate(repository, remoteRefs, branchName -> !deployOnly || branchName.equals("master") || branchName.startsWith("deploy-")))
+                return false;
+            if(targetMonitor.isBare())
+                return true;
+            Ref trackingMaster = repository.exactRef(Constants.R_REMOTES + "origin/master");
+            return trackingMaster != null && trackingMaster.getObjectId().equals(repository.resolve(Constants.HEAD));
+        }
+
+        /**
+         * Restarts from the persisted sync state with a single ref advertisement.
+         * If master did not move, only the deploy branches whose remote ref differs from the state are synced
+         * and the master fetch, pull and branch listing are skipped.
+         *
+         * @return false if the full startup is needed
+         */
+        private boolean warmStart(Git git, Map<String, Ref> remoteRefs) throws IOException {
+            File resourceDir = targetMonitor.getResourceMasterDir();
+            Ref remoteMaster = remoteRefs.get(Constants.R_HEADS + "master");
+            Ref localMaster = git.getRepository().exactRef(Constants.R_REMOTES + "origin/master");
+            if(remoteMaster == null || localMaster == null || !remoteMaster.getObjectId().equals(localMaster.getObjectId())) {
+                return false;
+            }
+
+            List<String> deployBranches = new ArrayList<String>();
+            List<Ref> movedRefs = new ArrayList<Ref>();
+            for(Ref ref : remoteRefs.values()) {
+                if(!ref.getName().startsWith(Constants.R_HEADS + "deploy-"))
+                    continue;
+                String branchName = ref.getName().substring(Constants.R_HEADS.length());
+                if(targetMonitor.isRemovedAt(branchName, ref.getObjectId()))
+                    continue;
+                deployBranches.add(branchName);
+                if(targetMonitor.isBranchUpToDate(branchName, ref.getObjectId())) {
+                    targetMonitor.completeSyncFutures(branchName, Collections.emptyList(), null);
+                    continue;
+                }
+                // a new branch copied from master needs master to know the branch first
+                boolean fetchesIntoMaster = targetMonitor.isBare() || targetMonitor.isSharedObjectStore() || targetMonitor.isBatchedSync();
+                if(!fetchesIntoMaster && !targetMonitor.getBranchWorkDir(branchName).exists())
+                    return false;
+                movedRefs.add(ref);
+            }
+
+            System.out.println(resourceDir.getAbsolutePath() + ": warm start, moved branches: " + movedRefs);
+            for(Ref ref : movedRefs) {
+                String branchName = ref.getName().substring(Constants.R_HEADS.length());
+                targetMonitor.markRemoteCommit(branchName, ref.getObjectId());
+                syncFoundBranch(branchName, false);
+            }
+            targetMonitor.startInitialSync(deployBranches);
+            return true;
+        }
+
+        /**
+         * Clones without a working tree. Unlike a bare CloneCommand, which maps remote branches onto refs/heads,
+         * this keeps them under refs/remotes/origin like every other target.
+         */
+        private Git cloneBare(File resourceDir) throws GitAPIException, IOException, URISyntaxException {
+            Git git = Git.init().setDirectory(resourceDir).setBare(true).call();
+            StoredConfig config = git.getRepository().getConfig();
+            RemoteConfig remoteConfig = new RemoteConfig(config, "origin");
+            remoteConfig.addURI(new URIish(targetMonitor.getProperties().getGitUri()));
+            remoteConfig.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + "origin/*"));
+            remoteConfig.update(config);
+            config.save();
+
+            timedTransfer(targetMonitor, "master", "clone", resourceDir, configTransportCommand(targetMonitor, git.fetch()));
+            return git;
+        }
+
+        /**
+         * Clones only master and the deploy-* branches, without tags.
+         * The narrowed refspecs stay in the remote config, so later fetches and pulls (and branch copies) keep the same scope.
+         */
+        private Git cloneDeployBranches(File resourceDir) throws GitAPIException, IOException, URISyntaxException {
+            Git git = Git.init().setDirectory(resourceDir).setBare(targetMonitor.isBare()).call();
+            StoredConfig config = git.getRepository().getConfig();
+            RemoteConfig remoteConfig = new RemoteConfig(config, "origin");
+            remoteConfig.addURI(new URIish(targetMonitor.getProperties().getGitUri()));
+            remoteConfig.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "master:" + Constants.R_REMOTES + "origin/master"));
+            remoteConfig.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "deploy-*:" + Constants.R_REMOTES + "origin/deploy-*"));
+            remoteConfig.setTagOpt(TagOpt.NO_TAGS);
+            remoteConfig.update(config);
+            config.save();
+
+            timedTransfer(targetMonitor, "master", "clone", resourceDir, configTransportCommand(targetMonitor, git.fetch())
+                    .setTagOpt(TagOpt.NO_TAGS));
+            if(targetMonitor.isBare())
+                return git;
+            timed(targetMonitor, "master", "checkout", git.checkout()
+                    .setCreateBranch(true)
+                    .setName("master")
+                    .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                    .setStartPoint("origin/master"));
+            return git;
+        }
     }
 
-    private class PullBranchTask implements Runnable {
+    /**
+     * Fetches all deploy-* branches of a target in one round trip and updates only the branches whose ref moved.
+     */
+    private class BatchedSyncTask extends AdmittedTask {
+        TargetMonitor targetMonitor;
+
+        public BatchedSyncTask(TargetMonitor targetMonitor, FetchAdmission.Admitted admitted) {
+            super(admitted);
+            this.targetMonitor = targetMonitor;
+        }
+
+        @Override
+        void runAdmitted() {
+            File masterDir = targetMonitor.getResourceMasterDir();
+            Set<String> requestedBranches = targetMonitor.drainBatchedSyncRequests();
+            Set<String> changedBranches = new LinkedHashSet<String>();
+            Throwable failure = null;
+            try (Git git = Git.open(masterDir)) {
+                if(isTrackingUpToDate(git.getRepository(), lsRemote(targetMonitor), branchName -> branchName.startsWith("deploy-"))) {
+                    System.out.println(masterDir.getAbsolutePath() + ": remote unchanged, skip batched fetch");
+                }else{
+                    FetchResult fetchResult = timedTransfer(targetMonitor, "deploy-*", "fetch", masterDir, configTransportCommand(targetMonitor, git.fetch())
+                            .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "deploy-*:" + Constants.R_REMOTES + "origin/deploy-*")));
+                    for(TrackingRefUpdate trackingRefUpdate : fetchResult.getTrackingRefUpdates()) {
+                        if(trackingRefUpdate.getResult() == RefUpdate.Result.NO_CHANGE)
+                            continue;
+                        String branchName = Repository.shortenRefName(trackingRefUpdate.getLocalName()).substring("origin/".length());
+                        if(!ObjectId.zeroId().equals(trackingRefUpdate.getNewObjectId())) {
+                            changedBranches.add(branchName);
+                        }
+                    }
+                    System.out.println(masterDir.getAbsolutePath() + ": batched fetch complete, changed: " + changedBranches);
+                }
+
+                for(String branchName : requestedBranches) {
+                    if(changedBranches.contains(branchName))
+                        continue;
+                    // a forced trigger always republishes, otherwise only a branch directory that fell behind is updated
+                    if(targetMonitor.isUrgent(branchName) || isBranchBehind(git.getRepository(), branchName)) {
+                        changedBranches.add(branchName);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+            } catch (GitAPIException e) {
+                e.printStackTrace();
+                failure = e;
+            }
+
+            for(String branchName : requestedBranches) {
+                if(!changedBranches.contains(branchName)) {
+                    targetMonitor.clearUrgent(branchName);
+                    targetMonitor.takeNotifiedTime(branchName);
+                    targetMonitor.completeSyncFutures(branchName, targetMonitor.takeSyncFutures(branchName), failure);
+                }
+            }
+            for(String branchName : changedBranches) {
+                asyncUpdateBranchLocally(targetMonitor, branchName);
+            }
+        }
+
+        private boolean isBranchBehind(Repository masterRepository, String branchName) throws IOException {
+            Ref trackingRef = masterRepository.exactRef(Constants.R_REMOTES + "origin/" + branchName);
+            if(trackingRef == null)
+                return false;
+            if(targetMonitor.isBare())
+                return !trackingRef.getObjectId().equals(targetMonitor.getSyncedCommit(branchName));
+            File branchDir = targetMonitor.getBranchWorkDir(branchName);
+            if(!branchDir.exists())
+                return true;
+            try (Repository branchRepository = Git.open(branchDir).getRepository()) {
+                ObjectId head = branchRepository.resolve(Constants.HEAD);
+                return !trackingRef.getObjectId().equals(head);
+            }
+        }
+    }
+
+    private class PullBranchTask extends AdmittedTask {
         TargetMonitor targetMonitor;
         String branchName;
+        boolean localOnly;
+        Throwable failure = null;
+        Long notifiedTime = null;
 
-        public PullBranchTask(TargetMonitor targetMonitor, String branchName) {
+        /**
+         * @param localOnly take the branch from what the master repository already fetched instead of pulling from the remote
+         */
+        public PullBranchTask(TargetMonitor targetMonitor, String branchName, boolean localOnly, FetchAdmission.Admitted admitted) {
+            super(admitted);
             this.targetMonitor = targetMonitor;
             this.branchName = branchName;
+            this.localOnly = localOnly;
         }
 
         @Override
-        public void run() {
+        void runAdmitted() {
+            // triggers arriving from now on wait for the next sync
+            List<CompletableFuture<String>> syncFutures = targetMonitor.takeSyncFutures(branchName);
+            notifiedTime = targetMonitor.takeNotifiedTime(branchName);
+            try {
+                pull();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                targetMonitor.completeSyncFutures(branchName, syncFutures, failure);
+            }
+        }
+
+        private void pull() {
+            boolean urgent = targetMonitor.isUrgent(branchName);
+            targetMonitor.clearUrgent(branchName);
+            // a forced trigger always republishes
+            if(!localOnly && !urgent && isRemoteUnchanged()) {
+                System.out.println(targetMonitor.getRepoDir().getAbsolutePath() + ": branch(" + branchName + ") remote unchanged, skip pull");
+                return;
+            }
+            if(targetMonitor.isBare()) {
+                syncBareBranch();
+                return;
+            }
             File masterDir = targetMonitor.getResourceMasterDir();
-            File branchDir = targetMonitor.getResourceBranchName(branchName);
+            File branchDir = targetMonitor.getBranchWorkDir(branchName);
             Git git = null;
+            RepositorySnapshot snapshot = null;
             System.out.println(branchDir.getAbsolutePath() + ": start branch(" + branchName + ") pull");
+            targetMonitor.markSyncing(branchName);
             try {
                 int retry;
-                if(!branchDir.exists()) {
-                    System.out.println(branchDir.getAbsolutePath() + ": copy from master");
-                    FileUtils.copyDirectory(masterDir, branchDir);
+                boolean shared = targetMonitor.isSharedObjectStore();
+                boolean created = !branchDir.exists();
+                if(created) {
+                    if(shared) {
+                        System.out.println(branchDir.getAbsolutePath() + ": link to master object store");
+                        SharedObjectStore.createLinkedRepository(masterDir, branchDir);
+                    }else{
+                        System.out.println(branchDir.getAbsolutePath() + ": copy from master");
+                        FileUtils.copyDirectory(masterDir, branchDir);
+                    }
                 }
                 git = Git.open(branchDir);
+                // a fresh copy of master is on master's commit, not on an earlier state of the branch
+                ObjectId oldHead = created ? null : git.getRepository().resolve(Constants.HEAD);
+                if(shared) {
+                    fetchIntoSharedObjectStore(git, masterDir);
+                }else if(localOnly) {
+                    fetchFromMaster(git, masterDir);
+                }
                 boolean hasBranch = false;
                 {
 
@@ -237,63 +976,230 @@ public class ServiceImpl implements JsDMSSpringClientService {
                 System.out.println("hasBranch : " + hasBranch);
                 if(!git.getRepository().getBranch().equalsIgnoreCase(branchName)) {
                     try {
-                        git.checkout()
+                        timed(targetMonitor, branchName, "checkout", git.checkout()
                                 .setForced(true)
                                 .setCreateBranch(!hasBranch)
                                 .setName(branchName)
                                 .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
-                                .setStartPoint("origin/" + branchName)
-                                .call();
+                                .setStartPoint("origin/" + branchName));
                     }catch(Exception e) {
                         e.printStackTrace();
-                        git.checkout()
+                        timed(targetMonitor, branchName, "checkout", git.checkout()
                                 .setForce(true)
                                 .setForced(true)
                                 .setCreateBranch(!hasBranch)
                                 .setName(branchName)
                                 .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
-                                .setStartPoint("origin/" + branchName)
-                                .call();
+                                .setStartPoint("origin/" + branchName));
                     }
                 }
-                for(retry = 0; retry < 2; retry++) {
+                if(shared || localOnly) {
+                    timed(targetMonitor, branchName, "reset", git.reset()
+                            .setMode(ResetCommand.ResetType.HARD)
+                            .setRef("origin/" + branchName));
+                }
+                // a retry after a conflict keeps the turn
+                for(retry = 0; retry < 2 && !(shared || localOnly); retry++) {
                     try {
-                        configTransportCommand(targetMonitor, git.pull())
-                                .setRemoteBranchName(branchName)
-                                .call();
+                        timedTransfer(targetMonitor, branchName, "pull", branchDir, configTransportCommand(targetMonitor, git.pull())
+                                .setRemoteBranchName(branchName));
                         break;
                     } catch (CheckoutConflictException conflictEx) {
                         System.err.println(branchDir.getAbsolutePath() + ": CheckoutConflictException!");
-                        git.reset()
+                        timed(targetMonitor, branchName, "reset", git.reset()
                                 .setMode(ResetCommand.ResetType.HARD)
-                                .setRef("origin/" + branchName)
-                                .call();
+                                .setRef("origin/" + branchName));
                     }
                 }
                 System.out.println(branchDir.getAbsolutePath() + ": pull completed");
 
-                JsDMSSpringClientProperties.TargetProperties targetProperties = targetMonitor.getProperties();
-                synchronized (repositoryChangeHandlers) {
-                    for(RepositoryChangeHandler handler : repositoryChangeHandlers) {
-                        handler.onRepositoryChanged(targetProperties.getName(), branchName, branchDir);
-                    }
+                ObjectId newHead = git.getRepository().resolve(Constants.HEAD);
+                File publishedDir = branchDir;
+                if(targetMonitor.isSnapshotPublishing()) {
+                    snapshot = targetMonitor.publishSnapshot(branchName, git.getRepository(), newHead);
+                    publishedDir = snapshot.getDirectory();
+                    System.out.println(publishedDir.getAbsolutePath() + ": snapshot published");
                 }
+
+                targetMonitor.setSyncedCommit(branchName, newHead);
+                dispatchChange(git.getRepository(), publishedDir, oldHead, newHead);
             } catch (IOException e) {
                 e.printStackTrace();
+                failure = e;
             } catch (RefAlreadyExistsException e) {
                 e.printStackTrace();
+                failure = e;
             } catch (InvalidRefNameException e) {
                 e.printStackTrace();
+                failure = e;
             } catch (RefNotFoundException e) {
                 e.printStackTrace();
+                failure = e;
             } catch (GitAPIException e) {
                 e.printStackTrace();
+                failure = e;
             } finally {
+                if(snapshot != null) {
+                    snapshot.close();
+                }
                 if(git != null) {
                     git.close();
                 }
             }
         }
+
+        /**
+         * @return true if the ref advertisement shows the branch where it was cleanly synced to
+         */
+        private boolean isRemoteUnchanged() {
+            try {
+                Ref remoteRef = lsRemote(targetMonitor).get(Constants.R_HEADS + branchName);
+                return remoteRef != null && targetMonitor.isBranchUpToDate(branchName, remoteRef.getObjectId());
+            } catch (GitAPIException e) {
+                // let the pull itself report the problem
+                return false;
+            }
+        }
+
+        /**
+         * Fetches the branch into the bare master repository. There is no working tree to update,
+         * handlers get the repository directory and read files through the read API.
+         */
+        private void syncBareBranch() {
+            File masterDir = targetMonitor.getResourceMasterDir();
+            System.out.println(masterDir.getAbsolutePath() + ": start branch(" + branchName + ") fetch");
+            try (Git git = Git.open(masterDir)) {
+                String trackingRefName = Constants.R_REMOTES + "origin/" + branchName;
+                if(!localOnly) {
+                    timedTransfer(targetMonitor, branchName, "fetch", masterDir, configTransportCommand(targetMonitor, git.fetch())
+                            .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branchName + ":" + trackingRefName)));
+                }
+                Ref trackingRef = git.getRepository().exactRef(trackingRefName);
+                if(trackingRef == null) {
+                    throw new RefNotFoundException(trackingRefName);
+                }
+                ObjectId oldHead = targetMonitor.getSyncedCommit(branchName);
+                ObjectId newHead = trackingRef.getObjectId();
+                System.out.println(masterDir.getAbsolutePath() + ": branch(" + branchName + ") at " + newHead.name());
+
+                targetMonitor.setSyncedCommit(branchName, newHead);
+                dispatchChange(git.getRepository(), masterDir, oldHead, newHead);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+            } catch (GitAPIException e) {
+                e.printStackTrace();
+                failure = e;
+            }
+        }
+
+        private void dispatchChange(Repository repository, File publishedDir, ObjectId oldHead, ObjectId newHead) throws IOException {
+            String targetName = targetMonitor.getProperties().getName();
+            boolean subscribed = changeEventBroadcaster.hasSubscribers(targetName, branchName);
+            RepositoryChangeEvent event = null;
+            if(subscribed || handlerDispatcher.hasEventHandlers()) {
+                event = createChangeEvent(repository, publishedDir, oldHead, newHead);
+            }
+            if(subscribed) {
+                changeEventBroadcaster.publish(event);
+            }
+            // handlers run after this task closed its snapshot, keep the directory until the last one returns
+            RepositorySnapshot handlerSnapshot = (!handlerDispatcher.isEmpty() && targetMonitor.isSnapshotPublishing()) ? targetMonitor.acquireSnapshot(branchName) : null;
+            Long notifiedTime = this.notifiedTime;
+            handlerDispatcher.dispatch(targetName, branchName, publishedDir, event, () -> {
+                if(handlerSnapshot != null) {
+                    handlerSnapshot.close();
+                }
+                if(notifiedTime != null) {
+                    syncMetrics.recordEndToEnd(targetName, branchName, System.nanoTime() - notifiedTime);
+                }
+            });
+        }
+
+        /**
+         * Diffs the trees of the old and the new commit. Without an old commit every path is reported as added.
+         */
+        private RepositoryChangeEvent createChangeEvent(Repository repository, File publishedDir, ObjectId oldHead, ObjectId newHead) throws IOException {
+            List<String> addedPaths = new ArrayList<String>();
+            List<String> modifiedPaths = new ArrayList<String>();
+            List<String> deletedPaths = new ArrayList<String>();
+            if(!newHead.equals(oldHead)) {
+                try (RevWalk revWalk = new RevWalk(repository);
+                     TreeWalk treeWalk = new TreeWalk(repository)) {
+                    treeWalk.setRecursive(true);
+                    if(oldHead != null) {
+                        treeWalk.addTree(revWalk.parseCommit(oldHead).getTree());
+                    }else{
+                        treeWalk.addTree(new EmptyTreeIterator());
+                    }
+                    treeWalk.addTree(revWalk.parseCommit(newHead).getTree());
+                    for(DiffEntry entry : DiffEntry.scan(treeWalk)) {
+                        switch (entry.getChangeType()) {
+                            case ADD:
+                                addedPaths.add(entry.getNewPath());
+                                break;
+                            case DELETE:
+                                deletedPaths.add(entry.getOldPath());
+                                break;
+                            default:
+                                modifiedPaths.add(entry.getNewPath());
+                                break;
+                        }
+                    }
+                }
+            }
+            return new RepositoryChangeEvent(
+                    targetMonitor.getProperties().getName(), branchName, publishedDir,
+                    (oldHead != null) ? oldHead.name() : null, newHead.name(),
+                    addedPaths, modifiedPaths, deletedPaths);
+        }
+
+        /**
+         * Fetches the branch into the master repository, which owns the objects, and moves the tracking ref of the branch repository.
+         */
+        private void fetchIntoSharedObjectStore(Git git, File masterDir) throws IOException, GitAPIException {
+            try (Git masterGit = Git.open(masterDir)) {
+                if(!localOnly) {
+                    timedTransfer(targetMonitor, branchName, "fetch", masterDir, configTransportCommand(targetMonitor, masterGit.fetch())
+                            .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branchName + ":" + Constants.R_REMOTES + "origin/" + branchName)));
+                }
+                if(SharedObjectStore.updateTrackingRef(masterGit.getRepository(), git.getRepository(), branchName) == null) {
+                    throw new RefNotFoundException("origin/" + branchName);
+                }
+            }
+        }
+
+        /**
+         * Copies the tracking ref of the branch, and the objects behind it, from the master repository over the local file transport.
+         */
+        private void fetchFromMaster(Git git, File masterDir) throws GitAPIException {
+            String trackingRefName = Constants.R_REMOTES + "origin/" + branchName;
+            timed(targetMonitor, branchName, "fetch", git.fetch()
+                    .setRemote(masterDir.getAbsolutePath())
+                    .setRefSpecs(new RefSpec("+" + trackingRefName + ":" + trackingRefName)));
+        }
+    }
+
+    @Override
+    public InputStream openFile(String name, String branchName, String path) throws IOException {
+        return getTargetMonitor(name).getContentReader().open(branchName, path);
+    }
+
+    @Override
+    public byte[] readFile(String name, String branchName, String path) throws IOException {
+        return getTargetMonitor(name).getContentReader().read(branchName, path);
+    }
+
+    @Override
+    public List<String> listDirectory(String name, String branchName, String path) throws IOException {
+        return getTargetMonitor(name).getContentReader().list(branchName, path);
+    }
+
+    private TargetMonitor getTargetMonitor(String name) throws FileNotFoundException {
+        TargetMonitor targetMonitor = targetMonitors.get(name);
+        if(targetMonitor == null)
+            throw new FileNotFoundException("Unknown target: " + name);
+        return targetMonitor;
     }
 
     @Override
@@ -306,18 +1212,71 @@ public class ServiceImpl implements JsDMSSpringClientService {
 
     @Override
     public void addRepositoryChangeHandler(RepositoryChangeHandler handler) {
-        synchronized (this.repositoryChangeHandlers) {
-            this.repositoryChangeHandlers.add(handler);
-        }
+        this.handlerDispatcher.addHandler(handler);
     }
 
     @Override
     public void removeRepositoryChangeHandler(RepositoryChangeHandler handler) {
-        synchronized (this.repositoryChangeHandlers) {
-            this.repositoryChangeHandlers.remove(handler);
+        this.handlerDispatcher.removeHandler(handler);
+    }
+
+    @Override
+    public void addRepositoryRemovalHandler(RepositoryRemovalHandler handler) {
+        if(this.branchEvictor != null) {
+            this.branchEvictor.addHandler(handler);
+        }
+    }
+
+    @Override
+    public void removeRepositoryRemovalHandler(RepositoryRemovalHandler handler) {
+        if(this.branchEvictor != null) {
+            this.branchEvictor.removeHandler(handler);
         }
     }
 
+    @Override
+    public RepositorySnapshot acquireSnapshot(String name, String branchName) {
+        TargetMonitor targetMonitor = targetMonitors.get(name);
+        if(targetMonitor == null)
+            return null;
+        return targetMonitor.acquireSnapshot(branchName);
+    }
+
+    @Override
+    public CompletableFuture<String> triggerSync(String name, String branchName) {
+        TargetMonitor targetMonitor = targetMonitors.get(name);
+        if(targetMonitor == null)
+            return unknownTarget(name);
+        return targetMonitor.triggerSync(branchName);
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitInitialSync(String name) {
+        TargetMonitor targetMonitor = targetMonitors.get(name);
+        if(targetMonitor == null)
+            return unknownTarget(name);
+        return targetMonitor.getInitialSyncFuture();
+    }
+
+    @Override
+    public CompletableFuture<String> awaitInitialSync(String name, String branchName) {
+        TargetMonitor targetMonitor = targetMonitors.get(name);
+        if(targetMonitor == null)
+            return unknownTarget(name);
+        return targetMonitor.getInitialSyncFuture(branchName);
+    }
+
+    private static <T> CompletableFuture<T> unknownTarget(String name) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(new IllegalArgumentException("Unknown target: " + name));
+        return future;
+    }
+
+    @Override
+    public Publisher<RepositoryChangeEvent> repositoryChanges(String name, String branchName, int bufferSize, ChangeEventOverflowStrategy overflowStrategy) {
+        return changeEventBroadcaster.publisher(name, branchName, bufferSize, overflowStrategy);
+    }
+
     @Override
     public void forceTrigger(String name, String branchName) {
         TargetMonitor targetMonitor = targetMonitors.get(name);
@@ -327,6 +1286,32 @@ public class ServiceImpl implements JsDMSSpringClientService {
     }
 
     public void stop() {
+        if(refPoller != null) {
+            refPoller.stop();
+        }
+        if(localRefWatcher != null) {
+            localRefWatcher.stop();
+        }
+        fetchAdmission.stop();
+        retryScheduler.shutdownNow();
         executorService.shutdown();
+        changeEventBroadcaster.close();
+        eventExecutorService.shutdown();
+        handlerDispatcher.shutdown();
+        if(repositoryMaintenance != null) {
+            repositoryMaintenance.stop();
+        }
+        if(branchEvictor != null) {
+            branchEvictor.stop();
+        }
+        if(peerBundleDistributor != null) {
+            peerBundleDistributor.stop();
+        }
+        for(TargetMonitor targetMonitor : targetMonitors.values()) {
+            targetMonitor.close();
+        }
+        if(curatorFramework != null) {
+            curatorFramework.close();
+        }
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RemoteConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Branch working copies that borrow the object database of the master repository.
+ *
+ * Every branch repository is created with objects/info/alternates pointing at the master's objects directory,
+ * so it owns only its index, refs and working tree.
+ * Objects are always fetched into the master repository and the branch repository only moves its refs.
+ */
+final class SharedObjectStore {
+    private SharedObjectStore() {
+    }
+
+    public static void createLinkedRepository(File masterDir, File branchDir) throws IOException {
+        File masterObjectsDir;
+        RemoteConfig originConfig;
+        try (Repository masterRepository = FileRepositoryBuilder.create(new File(masterDir, Constants.DOT_GIT))) {
+            masterObjectsDir = new File(masterRepository.getDirectory(), Constants.OBJECTS);
+            originConfig = new RemoteConfig(masterRepository.getConfig(), Constants.DEFAULT_REMOTE_NAME);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        try (Repository branchRepository = FileRepositoryBuilder.create(new File(branchDir, Constants.DOT_GIT))) {
+            branchRepository.create();
+
+            File alternatesFile = new File(branchRepository.getDirectory(), Constants.OBJECTS + "/info/alternates");
+            alternatesFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(alternatesFile), StandardCharsets.UTF_8)) {
+                writer.write(masterObjectsDir.getAbsolutePath());
+                writer.write('\n');
+            }
+
+            // same url, refspecs and tag option as master
+            StoredConfig config = branchRepository.getConfig();
+            originConfig.update(config);
+            config.save();
+        }
+    }
+
+    /**
+     * Points refs/remotes/origin/{branchName} of the branch repository at the commit the master repository fetched.
+     *
+     * @return the commit the branch repository is now tracking, or null if master does not know the branch
+     */
+    public static ObjectId updateTrackingRef(Repository masterRepository, Repository branchRepository, String branchName) throws IOException {
+        String trackingRefName = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName;
+        Ref masterRef = masterRepository.exactRef(trackingRefName);
+        if (masterRef == null || masterRef.getObjectId() == null)
+            return null;
+
+        RefUpdate refUpdate = branchRepository.updateRef(trackingRefName);
+        refUpdate.setNewObjectId(masterRef.getObjectId());
+        refUpdate.setForceUpdate(true);
+        refUpdate.setRefLogMessage("jsdms: shared object store", false);
+        RefUpdate.Result result = refUpdate.update();
+        switch (result) {
+            case NEW:
+            case FORCED:
+            case FAST_FORWARD:
+            case NO_CHANGE:
+                return masterRef.getObjectId();
+            default:
+                throw new IOException("Failed to update " + trackingRefName + ": " + result);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.service.RepositorySnapshot;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes every synced commit of a branch as an immutable snapshot directory.
+ *
+ * Snapshots live in {repoDir}/.snapshots/{name}/{commitId}-{sequence}, every publish gets a directory of its own,
+ * so a commit published again while an older snapshot of it is still held never shares a directory with it.
+ * The published branch path {repoDir}/{name}
+ * is a symbolic link that is replaced by an atomic rename, so readers see either the old or the new tree, never a mix.
+ * The current snapshot holds one reference, readers hold one more each through a handle of their own,
+ * so closing a handle twice releases only its own reference; a superseded snapshot is deleted
+ * when its last reference is released.
+ */
+class SnapshotPublisher {
+    private final File repoDir;
+    private final File snapshotsDir;
+    private final Map<String, Snapshot> currentSnapshots = new ConcurrentHashMap<String, Snapshot>();
+    private final AtomicLong sequence = new AtomicLong();
+    // directories of snapshots with references, also those no longer current
+    private final Set<File> liveDirectories = ConcurrentHashMap.newKeySet();
+
+    public SnapshotPublisher(File repoDir) {
+        this.repoDir = repoDir;
+        this.snapshotsDir = new File(repoDir, ".snapshots");
+    }
+
+    /**
+     * @return the current snapshot of the branch with one reference taken, or null if none was published
+     */
+    public RepositorySnapshot acquire(String name) {
+        while (true) {
+            Snapshot snapshot = currentSnapshots.get(name);
+            if (snapshot == null) {
+                snapshot = recover(name);
+                if (snapshot == null)
+                    return null;
+            }
+            if (snapshot.retain())
+                return new Handle(snapshot);
+            // released meanwhile, look again instead of spinning on it
+            currentSnapshots.remove(name, snapshot);
+        }
+    }
+
+    /**
+     * Materializes the commit and makes it the current snapshot of the branch.
+     *
+     * @return the published snapshot with one reference taken for the caller
+     */
+    public RepositorySnapshot publish(String name, Repository repository, ObjectId commitId) throws IOException {
+        Snapshot previous = currentSnapshots.get(name);
+        if (previous == null)
+            previous = recover(name);
+        if (previous != null && previous.commitId.equals(commitId.name()) && previous.retain())
+            return new Handle(previous);
+
+        File branchSnapshotsDir = new File(snapshotsDir, name);
+        File snapshotDir;
+        do {
+            snapshotDir = new File(branchSnapshotsDir, commitId.name() + "-" + sequence.incrementAndGet());
+        } while (snapshotDir.exists());
+        File temporaryDir = new File(branchSnapshotsDir, snapshotDir.getName() + ".tmp");
+        FileUtils.deleteQuietly(temporaryDir);
+        temporaryDir.mkdirs();
+        materialize(repository, commitId, temporaryDir, previous);
+        Files.move(temporaryDir.toPath(), snapshotDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        Snapshot snapshot = new Snapshot(snapshotDir, commitId.name(), liveDirectories);
+        snapshot.retain();
+        swapLink(name, snapshotDir);
+        currentSnapshots.put(name, snapshot);
+        if (previous != null)
+            previous.release();
+        else
+            deleteStaleSnapshots(branchSnapshotsDir, snapshotDir);
+        return new Handle(snapshot);
+    }
+
+    /**
+     * Drops the branch; its snapshot is deleted when the last reader releases it.
+     */
+    public void remove(String name) throws IOException {
+        Snapshot snapshot = currentSnapshots.remove(name);
+        Files.deleteIfExists(new File(repoDir, name).toPath());
+        if (snapshot != null)
+            snapshot.release();
+    }
+
+    private synchronized Snapshot recover(String name) {
+        Snapshot snapshot = currentSnapshots.get(name);
+        if (snapshot != null)
+            return snapshot;
+        Path link = new File(repoDir, name).toPath();
+        if (!Files.isSymbolicLink(link))
+            return null;
+        try {
+            File snapshotDir = link.toRealPath().toFile();
+            if (!snapshotDir.isDirectory())
+                return null;
+            snapshot = new Snapshot(snapshotDir, commitIdOf(snapshotDir), liveDirectories);
+            currentSnapshots.put(name, snapshot);
+            return snapshot;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the commit of a snapshot directory, named {commitId}-{sequence} or, by earlier versions, {commitId}
+     */
+    private static String commitIdOf(File snapshotDir) {
+        String dirName = snapshotDir.getName();
+        int separator = dirName.indexOf('-');
+        return (separator >= 0) ? dirName.substring(0, separator) : dirName;
+    }
+
+    private void swapLink(String name, File snapshotDir) throws IOException {
+        Path link = new File(repoDir, name).toPath();
+        Path temporaryLink = new File(repoDir, "." + name + ".link").toPath();
+        Files.deleteIfExists(temporaryLink);
+        Files.createSymbolicLink(temporaryLink, repoDir.toPath().relativize(snapshotDir.toPath()));
+        if (Files.isDirectory(link, LinkOption.NOFOLLOW_LINKS)) {
+            // left over from in-place publishing
+            FileUtils.deleteDirectory(link.toFile());
+        }
+        Files.move(temporaryLink, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void deleteStaleSnapshots(File branchSnapshotsDir, File currentDir) {
+        File[] files = branchSnapshotsDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            // a reader may still hold a snapshot of the branch from before it was removed
+            if (!file.equals(currentDir) && !liveDirectories.contains(file))
+                FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Writes the tree of the commit into the directory. Files unchanged since the previous snapshot are hard linked instead of copied.
+     */
+    private static void materialize(Repository repository, ObjectId commitId, File targetDir, Snapshot previous) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(commitId);
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(commit.getTree());
+            ObjectId previousTree = null;
+            if (previous != null) {
+                try {
+                    previousTree = revWalk.parseCommit(ObjectId.fromString(previous.commitId)).getTree();
+                } catch (IOException | IllegalArgumentException e) {
+                    previousTree = null;
+                }
+            }
+            if (previousTree != null)
+                treeWalk.addTree(previousTree);
+            else
+                treeWalk.addTree(new EmptyTreeIterator());
+
+            ObjectReader objectReader = treeWalk.getObjectReader();
+            while (treeWalk.next()) {
+                FileMode fileMode = treeWalk.getFileMode(0);
+                if (fileMode == FileMode.GITLINK)
+                    continue;
+                File file = new File(targetDir, treeWalk.getPathString());
+                file.getParentFile().mkdirs();
+                ObjectId blobId = treeWalk.getObjectId(0);
+
+                if (fileMode == FileMode.SYMLINK) {
+                    String target = new String(objectReader.open(blobId).getBytes(), StandardCharsets.UTF_8);
+                    Files.createSymbolicLink(file.toPath(), Paths.get(target));
+                    continue;
+                }
+                if (previous != null && fileMode.equals(treeWalk.getFileMode(1)) && blobId.equals(treeWalk.getObjectId(1))) {
+                    try {
+                        Files.createLink(file.toPath(), new File(previous.directory, treeWalk.getPathString()).toPath());
+                        continue;
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // fall back to writing the blob
+                    }
+                }
+                try (OutputStream outputStream = new FileOutputStream(file)) {
+                    objectReader.open(blobId, Constants.OBJ_BLOB).copyTo(outputStream);
+                }
+                if (fileMode == FileMode.EXECUTABLE_FILE)
+                    file.setExecutable(true);
+            }
+        }
+    }
+
+    /**
+     * The state shared by all references to a snapshot directory.
+     */
+    private static class Snapshot {
+        private final File directory;
+        private final String commitId;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        private final Set<File> liveDirectories;
+
+        Snapshot(File directory, String commitId, Set<File> liveDirectories) {
+            this.directory = directory;
+            this.commitId = commitId;
+            this.liveDirectories = liveDirectories;
+            liveDirectories.add(directory);
+        }
+
+        boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count <= 0)
+                    return false;
+                if (refCount.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0) {
+                FileUtils.deleteQuietly(directory);
+                liveDirectories.remove(directory);
+            }
+        }
+    }
+
+    /**
+     * One reference to a snapshot, released by the first close.
+     */
+    private static class Handle implements RepositorySnapshot {
+        private final Snapshot snapshot;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Handle(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public File getDirectory() {
+            return snapshot.directory;
+        }
+
+        @Override
+        public String getCommitId() {
+            return snapshot.commitId;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true))
+                snapshot.release();
+        }
+    }
+}
@@ -24,12 +24,32 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * In pooled mode ({@link #setSessionPool(long)}) authenticated sessions are kept per (user, host, port)
+ * and every git command only opens a new exec channel on them. Sessions nobody uses for the idle timeout are disconnected.
+ */
 public class SshKeySshSessionFactory extends SshSessionFactory {
+    private static ScheduledExecutorService evictionScheduler = null;
+
     private final JSch sch;
     private HostKeyRepository hostKeyRepository = null;
     private Integer port = null;
 
+    private final Map<String, PooledSession> sessionPool = new HashMap<String, PooledSession>();
+    private long sessionIdleTimeout = 0;
+    private ScheduledFuture<?> evictionFuture = null;
+    private final AtomicLong sessionPoolHitCount = new AtomicLong();
+    private final AtomicLong sessionPoolMissCount = new AtomicLong();
+
     protected SshKeySshSessionFactory(JSch sch) {
         this.sch = sch;
     }
@@ -72,24 +92,185 @@ public class SshKeySshSessionFactory extends SshSessionFactory {
         this.hostKeyRepository = hostKeyRepository;
     }
 
+    /**
+     * Keeps sessions alive between git commands.
+     *
+     * @param idleTimeout milliseconds an unused session is kept connected
+     */
+    public void setSessionPool(long idleTimeout) {
+        synchronized (this.sessionPool) {
+            this.sessionIdleTimeout = idleTimeout;
+            if (this.evictionFuture == null) {
+                long period = Math.max(1000, idleTimeout / 2);
+                this.evictionFuture = getEvictionScheduler().scheduleWithFixedDelay(this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public boolean isSessionPoolEnabled() {
+        return this.sessionIdleTimeout > 0;
+    }
+
+    public long getSessionPoolHitCount() {
+        return this.sessionPoolHitCount.get();
+    }
+
+    public long getSessionPoolMissCount() {
+        return this.sessionPoolMissCount.get();
+    }
+
     @Override
     public RemoteSession getSession(URIish uri, CredentialsProvider credentialsProvider, FS fs, int tms) throws TransportException {
         try {
-            Session session = this.sch.getSession(uri.getUser(), uri.getHost());
-            if(this.hostKeyRepository != null)
-                session.setHostKeyRepository(this.hostKeyRepository);
-            if(this.port != null)
-                session.setPort(this.port);
-            else
-                session.setPort(22);
-            if(tms <= 0)
-                session.connect();
-            else
-                session.connect(tms);
-            return new JschSession(session, uri);
+            if(isSessionPoolEnabled())
+                return getPooledSession(uri, tms);
+            return new JschSession(connect(uri, tms), uri);
         } catch (JSchException e) {
             e.printStackTrace();
         }
         return null;
     }
+
+    Session connect(URIish uri, int tms) throws JSchException {
+        Session session = this.sch.getSession(uri.getUser(), uri.getHost());
+        if(this.hostKeyRepository != null)
+            session.setHostKeyRepository(this.hostKeyRepository);
+        session.setPort(getPort(uri));
+        if(tms <= 0)
+            session.connect();
+        else
+            session.connect(tms);
+        return session;
+    }
+
+    private int getPort(URIish uri) {
+        if(this.port != null)
+            return this.port;
+        return 22;
+    }
+
+    private RemoteSession getPooledSession(URIish uri, int tms) throws JSchException {
+        String poolKey = uri.getUser() + "@" + uri.getHost() + ":" + getPort(uri);
+        PooledSession pooledSession = borrow(poolKey);
+        if(pooledSession != null) {
+            this.sessionPoolHitCount.incrementAndGet();
+            return new PooledJschSession(pooledSession, uri);
+        }
+        this.sessionPoolMissCount.incrementAndGet();
+        // connected without the pool lock, a slow host does not hold up commands to the others
+        Session session = connect(uri, tms);
+        synchronized (this.sessionPool) {
+            pooledSession = this.sessionPool.get(poolKey);
+            if(pooledSession == null || !pooledSession.session.isConnected()) {
+                if(pooledSession != null && pooledSession.refCount == 0)
+                    pooledSession.session.disconnect();
+                pooledSession = new PooledSession(session);
+                this.sessionPool.put(poolKey, pooledSession);
+                session = null;
+            }
+            pooledSession.refCount++;
+        }
+        // another command connected meanwhile
+        if(session != null)
+            session.disconnect();
+        return new PooledJschSession(pooledSession, uri);
+    }
+
+    /**
+     * @return the connected pooled session with its reference taken, or null if there is none
+     */
+    private PooledSession borrow(String poolKey) {
+        synchronized (this.sessionPool) {
+            PooledSession pooledSession = this.sessionPool.get(poolKey);
+            if(pooledSession == null || !pooledSession.session.isConnected())
+                return null;
+            pooledSession.refCount++;
+            return pooledSession;
+        }
+    }
+
+    private void release(PooledSession pooledSession) {
+        synchronized (this.sessionPool) {
+            pooledSession.refCount--;
+            pooledSession.lastUsed = System.currentTimeMillis();
+            // replaced while in use, nobody can borrow it any more
+            if(pooledSession.refCount == 0 && !this.sessionPool.containsValue(pooledSession))
+                pooledSession.session.disconnect();
+        }
+    }
+
+    public void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        synchronized (this.sessionPool) {
+            Iterator<Map.Entry<String, PooledSession>> iterator = this.sessionPool.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<String, PooledSession> entry = iterator.next();
+                PooledSession pooledSession = entry.getValue();
+                if(pooledSession.refCount == 0 && (now - pooledSession.lastUsed >= this.sessionIdleTimeout || !pooledSession.session.isConnected())) {
+                    System.out.println(entry.getKey() + ": evict idle ssh session (hit=" + this.sessionPoolHitCount.get() + ", miss=" + this.sessionPoolMissCount.get() + ")");
+                    pooledSession.session.disconnect();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Disconnects every pooled session and stops evicting.
+     */
+    public void close() {
+        synchronized (this.sessionPool) {
+            if(this.evictionFuture != null) {
+                this.evictionFuture.cancel(false);
+                this.evictionFuture = null;
+            }
+            for(PooledSession pooledSession : this.sessionPool.values()) {
+                pooledSession.session.disconnect();
+            }
+            this.sessionPool.clear();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getEvictionScheduler() {
+        if(evictionScheduler == null) {
+            evictionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jsdms-ssh-session-eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return evictionScheduler;
+    }
+
+    private static class PooledSession {
+        final Session session;
+        int refCount = 0;
+        long lastUsed = System.currentTimeMillis();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * Opens exec channels on the pooled session, disconnecting only returns the session to the pool.
+     */
+    private class PooledJschSession extends JschSession {
+        private final PooledSession pooledSession;
+        private boolean released = false;
+
+        PooledJschSession(PooledSession pooledSession, URIish uri) {
+            super(pooledSession.session, uri);
+            this.pooledSession = pooledSession;
+        }
+
+        @Override
+        public synchronized void disconnect() {
+            if(!this.released) {
+                this.released = true;
+                release(this.pooledSession);
+            }
+        }
+    }
 }
+
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Receives timings and counts of the sync engine. Every method defaults to doing nothing, see {@link #NOOP}.
+ *
+ * Phases are "clone", "fetch", "pull", "checkout", "reset", "peer-fetch" and "handler".
+ * The end-to-end time runs from the ZooKeeper notification of a branch until the last handler returned for the resulting change.
+ */
+public interface SyncMetrics {
+    SyncMetrics NOOP = new SyncMetrics() {
+    };
+
+    default void recordPhase(String targetName, String branchName, String phase, long nanos) {
+    }
+
+    default void recordReceived(String targetName, long objects, long bytes) {
+    }
+
+    default void recordEndToEnd(String targetName, String branchName, long nanos) {
+    }
+
+    /**
+     * @param branchName "master" or the deploy branch whose repository was collected
+     * @param reclaimedBytes object bytes before minus after the gc
+     */
+    default void recordMaintenance(String targetName, String branchName, long nanos, long reclaimedBytes) {
+    }
+
+    /**
+     * @param queueDepth sync tasks of the target waiting to run
+     */
+    default void bindTarget(String targetName, IntSupplier queueDepth) {
+    }
+
+    default void bindSyncPool(IntSupplier activeThreads, IntSupplier poolSize, IntSupplier queuedTasks) {
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sync state of a target that survives restarts, kept in {repoDir}/.jsdms-state.json.
+ *
+ * Per branch it records the commit last synced, the remote value of the branch ref last seen
+ * and whether the working tree was left clean, so a restart only has to sync branches that moved.
+ * A branch is marked not clean while it is being synced, so an interrupted checkout is redone.
+ */
+class SyncStateStore {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final File stateFile;
+    private final StateDocument document;
+    private final boolean loaded;
+
+    public SyncStateStore(File stateFile) {
+        this.stateFile = stateFile;
+        StateDocument document = null;
+        if (stateFile.isFile()) {
+            try {
+                document = OBJECT_MAPPER.readValue(stateFile, StateDocument.class);
+            } catch (IOException e) {
+                System.err.println(stateFile.getAbsolutePath() + ": ignore unreadable sync state: " + e.getMessage());
+            }
+        }
+        this.loaded = document != null;
+        this.document = (document != null) ? document : new StateDocument();
+    }
+
+    /**
+     * @return true if a state file from an earlier run was read
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized BranchState getBranch(String branchName) {
+        BranchState branchState = document.getBranches().get(branchName);
+        return (branchState != null) ? branchState.copy() : null;
+    }
+
+    public synchronized Map<String, BranchState> getBranches() {
+        Map<String, BranchState> branches = new TreeMap<String, BranchState>();
+        for (Map.Entry<String, BranchState> entry : document.getBranches().entrySet())
+            branches.put(entry.getKey(), entry.getValue().copy());
+        return branches;
+    }
+
+    public synchronized void markSyncing(String branchName) {
+        BranchState branchState = document.getBranches().computeIfAbsent(branchName, key -> new BranchState());
+        if (!branchState.isClean())
+            return;
+        branchState.setClean(false);
+        save();
+    }
+
+    public synchronized void markSynced(String branchName, String commitId) {
+        BranchState branchState = document.getBranches().computeIfAbsent(branchName, key -> new BranchState());
+        branchState.setSyncedCommit(commitId);
+        branchState.setRemoteCommit(commitId);
+        branchState.setClean(true);
+        branchState.setRemoved(false);
+        save();
+    }
+
+    /**
+     * Records that the directory of the branch was removed while the branch still exists, so it is not synced again until it moves.
+     */
+    public synchronized void markRemoved(String branchName) {
+        BranchState branchState = document.getBranches().get(branchName);
+        if (branchState == null || branchState.isRemoved())
+            return;
+        branchState.setRemoved(true);
+        save();
+    }
+
+    public synchronized void markRemoteCommit(String branchName, String commitId) {
+        BranchState branchState = document.getBranches().computeIfAbsent(branchName, key -> new BranchState());
+        if (commitId.equals(branchState.getRemoteCommit()))
+            return;
+        branchState.setRemoteCommit(commitId);
+        save();
+    }
+
+    public synchronized void removeBranch(String branchName) {
+        if (document.getBranches().remove(branchName) != null)
+            save();
+    }
+
+    private void save() {
+        File temporaryFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        try {
+            stateFile.getParentFile().mkdirs();
+            OBJECT_MAPPER.writeValue(temporaryFile, document);
+            Files.move(temporaryFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class StateDocument {
+        private Map<String, BranchState> branches = new TreeMap<String, BranchState>();
+
+        public Map<String, BranchState> getBranches() {
+            return branches;
+        }
+
+        public void setBranches(Map<String, BranchState> branches) {
+            this.branches = new TreeMap<String, BranchState>(branches);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class BranchState {
+        private String syncedCommit;
+        private String remoteCommit;
+        private boolean clean;
+        private boolean removed;
+
+        public String getSyncedCommit() {
+            return syncedCommit;
+        }
+
+        public void setSyncedCommit(String syncedCommit) {
+            this.syncedCommit = syncedCommit;
+        }
+
+        public String getRemoteCommit() {
+            return remoteCommit;
+        }
+
+        public void setRemoteCommit(String remoteCommit) {
+            this.remoteCommit = remoteCommit;
+        }
+
+        public boolean isClean() {
+            return clean;
+        }
+
+        public void setClean(boolean clean) {
+            this.clean = clean;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+
+        public void setRemoved(boolean removed) {
+            this.removed = removed;
+        }
+
+        BranchState copy() {
+            BranchState branchState = new BranchState();
+            branchState.syncedCommit = syncedCommit;
+            branchState.remoteCommit = remoteCommit;
+            branchState.clean = clean;
+            branchState.removed = removed;
+            return branchState;
+        }
+    }
+}
@@ -16,8 +16,15 @@
 package kr.jclab.jsdms.spring.client.internal;
 
 import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import kr.jclab.jsdms.spring.client.service.RepositorySnapshot;
 import com.jcraft.jsch.JSchException;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.SshSessionFactory;
 import org.eclipse.jgit.transport.SshTransport;
@@ -25,6 +32,18 @@ import org.eclipse.jgit.transport.Transport;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 public class TargetMonitor {
     protected final ServiceImpl service;
@@ -37,6 +56,22 @@ public class TargetMonitor {
 
     protected final File repoDir;
     protected final File resourceMasterDir;
+    protected final File workDir;
+
+    private final SnapshotPublisher snapshotPublisher;
+    private final BranchContentReader contentReader;
+    private final SyncStateStore syncStateStore;
+
+    private final Set<String> urgentBranches = ConcurrentHashMap.newKeySet();
+    private final Set<String> batchedSyncRequests = ConcurrentHashMap.newKeySet();
+    private final Map<String, ObjectId> syncedCommits = new ConcurrentHashMap<String, ObjectId>();
+    private final Map<String, ObjectId> removedCommits = new ConcurrentHashMap<String, ObjectId>();
+    private final Map<String, Queue<CompletableFuture<String>>> syncFutures = new ConcurrentHashMap<String, Queue<CompletableFuture<String>>>();
+    private final Map<String, CompletableFuture<String>> initialBranchSyncFutures = new ConcurrentHashMap<String, CompletableFuture<String>>();
+    private final CompletableFuture<Void> initialSyncFuture = new CompletableFuture<Void>();
+    private final Map<String, Long> notifiedTimes = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Long> usedTimes = new ConcurrentHashMap<String, Long>();
+    private volatile long lastActivityTime = System.nanoTime();
 
     public TargetMonitor(ServiceImpl service, JsDMSSpringClientProperties.TargetProperties properties, String gitRepoName) throws JSchException, IOException {
         this.service = service;
@@ -44,6 +79,19 @@ public class TargetMonitor {
         this.gitRepoName = gitRepoName;
         this.repoDir = new File(properties.getResourceDirectory(), gitRepoName);
         this.resourceMasterDir = new File(this.repoDir, "master");
+        this.workDir = new File(this.repoDir, ".work");
+        this.snapshotPublisher = new SnapshotPublisher(this.repoDir);
+        this.contentReader = new BranchContentReader(this, service.getBlobCache());
+        this.syncStateStore = new SyncStateStore(new File(this.repoDir, ".jsdms-state.json"));
+        for(Map.Entry<String, SyncStateStore.BranchState> entry : this.syncStateStore.getBranches().entrySet()) {
+            String syncedCommit = entry.getValue().getSyncedCommit();
+            if(syncedCommit == null || !ObjectId.isId(syncedCommit))
+                continue;
+            if(entry.getValue().isRemoved())
+                this.removedCommits.put(entry.getKey(), ObjectId.fromString(syncedCommit));
+            else
+                this.syncedCommits.put(entry.getKey(), ObjectId.fromString(syncedCommit));
+        }
 
         if(properties.getSshKeyPlain() != null) {
             this.sshSessionFactory = SshKeySshSessionFactory.createByPrivateKey(properties.getSshKeyPlain(), properties.getSshKeyPassphrase());
@@ -54,8 +102,12 @@ public class TargetMonitor {
         }
 
         if(this.sshSessionFactory != null) {
+            JsDMSSpringClientProperties.SshProperties sshProperties = service.getProperties().getSsh();
             ((SshKeySshSessionFactory) this.sshSessionFactory).setPort(properties.getGitPort());
             ((SshKeySshSessionFactory) this.sshSessionFactory).setHostKeyRepository(new MyHostKeyRepository());
+            if(sshProperties.isSessionPool()) {
+                ((SshKeySshSessionFactory) this.sshSessionFactory).setSessionPool(sshProperties.getSessionIdleTimeout());
+            }
         }
 
         this.credentialsProvider = null;
@@ -69,6 +121,10 @@ public class TargetMonitor {
         service.asyncDownloadMasterBranch(this);
     }
 
+    public final String getGitRepoName() {
+        return gitRepoName;
+    }
+
     public final File getRepoDir() {
         return repoDir;
     }
@@ -84,10 +140,316 @@ public class TargetMonitor {
         throw new IllegalArgumentException("branchName is not starts with 'deploy-': " + branchName);
     }
 
+    /**
+     * @return the git working copy of the branch, which is the published directory unless snapshots are published
+     */
+    public final File getBranchWorkDir(String branchName) throws IllegalArgumentException {
+        File branchDir = getResourceBranchName(branchName);
+        if(isSnapshotPublishing())
+            return new File(this.workDir, branchDir.getName());
+        return branchDir;
+    }
+
+    public boolean isSnapshotPublishing() {
+        return "snapshot".equalsIgnoreCase(this.properties.getPublishMode());
+    }
+
+    RepositorySnapshot publishSnapshot(String branchName, Repository repository, ObjectId commitId) throws IOException {
+        return this.snapshotPublisher.publish(getResourceBranchName(branchName).getName(), repository, commitId);
+    }
+
+    public RepositorySnapshot acquireSnapshot(String branchName) {
+        if(!isSnapshotPublishing())
+            return null;
+        markUsed(branchName);
+        return this.snapshotPublisher.acquire(getResourceBranchName(branchName).getName());
+    }
+
     public final JsDMSSpringClientProperties.TargetProperties getProperties() {
         return this.properties;
     }
 
+    public boolean isBare() {
+        return "bare".equalsIgnoreCase(this.properties.getType());
+    }
+
+    public boolean isSharedObjectStore() {
+        return "shared".equalsIgnoreCase(this.properties.getStorageMode());
+    }
+
+    public boolean isDeployFetchScope() {
+        return "deploy".equalsIgnoreCase(this.properties.getFetchScope());
+    }
+
+    public boolean isBatchedSync() {
+        return "batched".equalsIgnoreCase(this.properties.getSyncMode());
+    }
+
+    void requestBatchedSync(String branchName) {
+        this.batchedSyncRequests.add(branchName);
+    }
+
+    Set<String> drainBatchedSyncRequests() {
+        Set<String> branchNames = new HashSet<String>();
+        for(String branchName : this.batchedSyncRequests) {
+            if(this.batchedSyncRequests.remove(branchName))
+                branchNames.add(branchName);
+        }
+        return branchNames;
+    }
+
+    /**
+     * @return the commit the change handlers of the branch were last told about, also in an earlier run, or null if the branch was never synced
+     */
+    public ObjectId getSyncedCommit(String branchName) {
+        return this.syncedCommits.get(branchName);
+    }
+
+    /**
+     * @return the branches synced at least once, also in an earlier run
+     */
+    public Set<String> getSyncedBranches() {
+        return new TreeSet<String>(this.syncedCommits.keySet());
+    }
+
+    /**
+     * @return the synced branches and the stale ones removed since, which the remote may have deleted meanwhile
+     */
+    Set<String> getKnownBranches() {
+        Set<String> branchNames = new TreeSet<String>(this.syncedCommits.keySet());
+        branchNames.addAll(this.removedCommits.keySet());
+        return branchNames;
+    }
+
+    /**
+     * @return true if the branch was already synced to the commit, or removed as stale at it, so a notification about it needs no work
+     */
+    public boolean isSyncedTo(String branchName, String commitId) {
+        if(commitId == null)
+            return false;
+        ObjectId syncedCommit = this.syncedCommits.get(branchName);
+        if(syncedCommit == null)
+            syncedCommit = this.removedCommits.get(branchName);
+        return syncedCommit != null && syncedCommit.name().equalsIgnoreCase(commitId);
+    }
+
+    /**
+     * @return true if the branch was removed as stale and did not move since, so startup leaves it out
+     */
+    boolean isRemovedAt(String branchName, ObjectId commitId) {
+        return commitId.equals(this.removedCommits.get(branchName));
+    }
+
+    void setSyncedCommit(String branchName, ObjectId commitId) {
+        this.syncedCommits.put(branchName, commitId.copy());
+        this.removedCommits.remove(branchName);
+        this.syncStateStore.markSynced(branchName, commitId.name());
+        markUsed(branchName);
+    }
+
+    /**
+     * Removes the directories of the branch. Snapshots still held by readers are deleted when released.
+     * A deleted branch is forgotten, a stale one is remembered at its synced commit so it only comes back once it moves.
+     *
+     * @param deleted the branch is gone from the remote, so its tracking ref in master goes as well
+     * @return the published directory the branch had, or null if it was already removed as stale
+     */
+    File removeBranch(String branchName, boolean deleted) throws IOException {
+        File branchDir = isBare() ? this.resourceMasterDir : getResourceBranchName(branchName);
+        ObjectId syncedCommit = this.syncedCommits.remove(branchName);
+        this.contentReader.forget(branchName);
+        if(isSnapshotPublishing()) {
+            this.snapshotPublisher.remove(getResourceBranchName(branchName).getName());
+        }
+        if(!isBare()) {
+            FileUtils.deleteDirectory(getBranchWorkDir(branchName));
+        }
+        if(deleted) {
+            try (Repository repository = Git.open(this.resourceMasterDir).getRepository()) {
+                RefUpdate refUpdate = repository.updateRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName);
+                refUpdate.setForceUpdate(true);
+                refUpdate.delete();
+            }
+            this.removedCommits.remove(branchName);
+            this.syncStateStore.removeBranch(branchName);
+        }else if(syncedCommit != null) {
+            this.removedCommits.put(branchName, syncedCommit);
+            this.syncStateStore.markRemoved(branchName);
+        }
+        this.notifiedTimes.remove(branchName);
+        this.usedTimes.remove(branchName);
+        this.initialBranchSyncFutures.computeIfPresent(branchName, (key, future) -> future.isDone() ? null : future);
+        return (syncedCommit != null) ? branchDir : null;
+    }
+
+    /**
+     * Records that the working tree of the branch is about to change, so a restart redoes the sync if it is interrupted.
+     */
+    void markSyncing(String branchName) {
+        this.syncStateStore.markSyncing(branchName);
+    }
+
+    void markRemoteCommit(String branchName, ObjectId commitId) {
+        this.syncStateStore.markRemoteCommit(branchName, commitId.name());
+    }
+
+    /**
+     * @return true if a sync state from an earlier run exists, so startup can skip branches that did not move
+     */
+    boolean hasSyncState() {
+        return this.syncStateStore.isLoaded();
+    }
+
+    /**
+     * @return true if the branch was cleanly synced to the commit and its working copy is still there
+     */
+    boolean isBranchUpToDate(String branchName, ObjectId remoteCommit) {
+        SyncStateStore.BranchState branchState = this.syncStateStore.getBranch(branchName);
+        if(branchState == null || !branchState.isClean() || !remoteCommit.name().equals(branchState.getSyncedCommit()))
+            return false;
+        if(isBare())
+            return true;
+        File branchDir = getBranchWorkDir(branchName);
+        if(!branchDir.exists())
+            return false;
+        try (Git git = Git.open(branchDir)) {
+            return remoteCommit.equals(git.getRepository().resolve(Constants.HEAD));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return futures of trigger calls waiting for the next sync of the branch, which the sync task takes when it starts
+     */
+    List<CompletableFuture<String>> takeSyncFutures(String branchName) {
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        Queue<CompletableFuture<String>> queue = this.syncFutures.get(branchName);
+        if(queue != null) {
+            CompletableFuture<String> future;
+            while((future = queue.poll()) != null)
+                futures.add(future);
+        }
+        return futures;
+    }
+
+    /**
+     * Completes the futures taken by a sync task, and the initial sync of the branch, with the synced commit or the failure.
+     */
+    void completeSyncFutures(String branchName, List<CompletableFuture<String>> futures, Throwable failure) {
+        ObjectId syncedCommit = this.syncedCommits.get(branchName);
+        if(failure == null && syncedCommit == null)
+            failure = new IllegalStateException(this.properties.getName() + ": branch not synced: " + branchName);
+        CompletableFuture<String> initialFuture = getInitialSyncFuture(branchName);
+        if(failure != null) {
+            for(CompletableFuture<String> future : futures)
+                future.completeExceptionally(failure);
+            initialFuture.completeExceptionally(failure);
+        }else{
+            for(CompletableFuture<String> future : futures)
+                future.complete(syncedCommit.name());
+            initialFuture.complete(syncedCommit.name());
+        }
+    }
+
+    /**
+     * @return future of the commit the branch is first synced to (or found up to date at) after startup
+     */
+    public CompletableFuture<String> getInitialSyncFuture(String branchName) {
+        return this.initialBranchSyncFutures.computeIfAbsent(branchName, key -> new CompletableFuture<String>());
+    }
+
+    /**
+     * @return future completed when every deploy branch found at startup had its first sync
+     */
+    public CompletableFuture<Void> getInitialSyncFuture() {
+        return this.initialSyncFuture;
+    }
+
+    void startInitialSync(Collection<String> branchNames) {
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for(String branchName : branchNames)
+            futures.add(getInitialSyncFuture(branchName));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> {
+            if(e != null)
+                this.initialSyncFuture.completeExceptionally(e);
+            else
+                this.initialSyncFuture.complete(null);
+        });
+    }
+
+    void failInitialSync(Throwable failure) {
+        this.initialSyncFuture.completeExceptionally(failure);
+    }
+
+    /**
+     * Remembers when a change of the branch was announced, for the end-to-end time. The earliest unsynced announcement wins.
+     */
+    void markNotified(String branchName) {
+        this.notifiedTimes.putIfAbsent(branchName, System.nanoTime());
+        markActivity();
+    }
+
+    void markActivity() {
+        this.lastActivityTime = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds since the last git command of a sync or the last announced change
+     */
+    long getIdleNanos() {
+        return System.nanoTime() - this.lastActivityTime;
+    }
+
+    /**
+     * Remembers that the branch was synced or read, for the stale branch eviction.
+     */
+    void markUsed(String branchName) {
+        if(this.syncedCommits.containsKey(branchName))
+            this.usedTimes.put(branchName, System.nanoTime());
+    }
+
+    /**
+     * @return nanoseconds since the branch was last synced or read, counted from the first call if that was not in this run
+     */
+    long getUnusedNanos(String branchName) {
+        return System.nanoTime() - this.usedTimes.computeIfAbsent(branchName, key -> System.nanoTime());
+    }
+
+    /**
+     * @return System.nanoTime() of the announcement the starting sync serves, or null
+     */
+    Long takeNotifiedTime(String branchName) {
+        return this.notifiedTimes.remove(branchName);
+    }
+
+    BranchContentReader getContentReader() {
+        return this.contentReader;
+    }
+
+    public int getWeight() {
+        return this.properties.getWeight();
+    }
+
+    /**
+     * @return true while a user-initiated pull of this target has not started yet
+     */
+    public boolean hasUrgentWork() {
+        return !this.urgentBranches.isEmpty();
+    }
+
+    boolean isUrgent(String branchName) {
+        return this.urgentBranches.contains(branchName);
+    }
+
+    void markUrgent(String branchName) {
+        this.urgentBranches.add(branchName);
+    }
+
+    void clearUrgent(String branchName) {
+        this.urgentBranches.remove(branchName);
+    }
+
     public CredentialsProvider getCredentialsProvider() {
         return this.credentialsProvider;
     }
@@ -101,7 +463,35 @@ public class TargetMonitor {
         };
     }
 
+    public SshSessionFactory getSshSessionFactory() {
+        return this.sshSessionFactory;
+    }
+
+    void close() {
+        this.contentReader.close();
+        if(this.sshSessionFactory != null) {
+            ((SshKeySshSessionFactory) this.sshSessionFactory).close();
+        }
+    }
+
     public void forceTrigger(String branchName) {
-        service.asyncPullBranch(TargetMonitor.this, branchName);
+        service.asyncPullBranch(TargetMonitor.this, branchName, true);
+    }
+
+    /**
+     * Forces a sync of the branch.
+     *
+     * @return future of the commit the branch was synced to, completed by the sync task of this target
+     */
+    public CompletableFuture<String> triggerSync(String branchName) {
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        this.syncFutures.computeIfAbsent(branchName, key -> new ConcurrentLinkedQueue<CompletableFuture<String>>()).add(future);
+        try {
+            if(!service.asyncPullBranch(TargetMonitor.this, branchName, true))
+                future.completeExceptionally(new RejectedExecutionException("Sync queue is full"));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
     }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+import java.io.File;
+
+/**
+ * Counts what one clone, fetch or pull received.
+ *
+ * Objects are taken from the "Receiving objects" progress, bytes from the growth of the pack directory,
+ * since JGit does not expose the size of the received pack.
+ */
+class TransferCounter implements ProgressMonitor {
+    private static final String RECEIVING_OBJECTS = "Receiving objects";
+
+    private final File repositoryDir;
+    private final long initialPackSize;
+    private boolean receiving = false;
+    private long receivedObjects = 0;
+
+    /**
+     * @param repositoryDir working tree or bare repository directory, need not exist yet
+     */
+    public TransferCounter(File repositoryDir) {
+        this.repositoryDir = repositoryDir;
+        this.initialPackSize = packSize();
+    }
+
+    public long getReceivedObjects() {
+        return receivedObjects;
+    }
+
+    public long getReceivedBytes() {
+        // a concurrent gc can shrink the directory
+        return Math.max(0, packSize() - initialPackSize);
+    }
+
+    private long packSize() {
+        // a clone creates .git only while it runs
+        File gitDir = new File(repositoryDir, Constants.DOT_GIT);
+        if (!gitDir.isDirectory())
+            gitDir = repositoryDir;
+        File[] files = new File(gitDir, Constants.OBJECTS + "/pack").listFiles();
+        if (files == null)
+            return 0;
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".pack"))
+                size += file.length();
+        }
+        return size;
+    }
+
+    @Override
+    public void start(int totalTasks) {
+    }
+
+    @Override
+    public void beginTask(String title, int totalWork) {
+        receiving = RECEIVING_OBJECTS.equals(title);
+    }
+
+    @Override
+    public void update(int completed) {
+        if (receiving)
+            receivedObjects += completed;
+    }
+
+    @Override
+    public void endTask() {
+        receiving = false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+}
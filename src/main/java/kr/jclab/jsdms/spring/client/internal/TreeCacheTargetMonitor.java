@@ -0,0 +1,94 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import com.jcraft.jsch.JSchException;
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.IOException;
+
+/**
+ * Watches the status nodes of a repository with one Curator {@link TreeCache} on the repository root
+ * instead of a ZkClient subscription per child.
+ *
+ * The cache mirrors the data and stat of every child, so its events carry the node data without a read back
+ * from ZooKeeper, and the watch count does not grow with the number of branches.
+ */
+public class TreeCacheTargetMonitor extends ZookeeperTargetMonitor implements TreeCacheListener {
+    private volatile TreeCache treeCache;
+    private volatile boolean initialized = false;
+
+    public TreeCacheTargetMonitor(ServiceImpl service, JsDMSSpringClientProperties.TargetProperties properties, String gitRepoName) throws JSchException, IOException {
+        super(service, properties, gitRepoName);
+    }
+
+    @Override
+    public void start(String zpath) {
+        final CuratorFramework curatorFramework = service.getCuratorFramework();
+
+        this.zpathRoot = zpath;
+
+        service.execute(() -> {
+            try {
+                curatorFramework.create().creatingParentsIfNeeded().forPath(zpath);
+            } catch (KeeperException.NodeExistsException e) {
+                // already created
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            TreeCache treeCache = TreeCache.newBuilder(curatorFramework, zpath)
+                    .setMaxDepth(1)
+                    .setCacheData(true)
+                    .build();
+            treeCache.getListenable().addListener(this);
+            try {
+                treeCache.start();
+                this.treeCache = treeCache;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+        switch (event.getType()) {
+            case INITIALIZED:
+                this.initialized = true;
+                break;
+            case NODE_ADDED:
+            case NODE_UPDATED:
+                // like the per-child subscriptions, nodes that exist at startup are not a change
+                if(!this.initialized)
+                    break;
+                ChildData childData = event.getData();
+                if(childData != null && !childData.getPath().equals(this.zpathRoot)) {
+                    onNodeDataChanged(childData.getPath(), childData.getData());
+                }
+                break;
+            case NODE_REMOVED:
+                if(!this.initialized)
+                    break;
+                ChildData removedData = event.getData();
+                if(removedData != null && !removedData.getPath().equals(this.zpathRoot)) {
+                    onNodeDeleted(removedData.getPath());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    void close() {
+        TreeCache treeCache = this.treeCache;
+        if(treeCache != null) {
+            treeCache.close();
+        }
+        super.close();
+    }
+}
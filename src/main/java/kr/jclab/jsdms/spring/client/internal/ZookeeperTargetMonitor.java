@@ -1,20 +1,37 @@
 package kr.jclab.jsdms.spring.client.internal;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.jcraft.jsch.JSchException;
 import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
 import org.I0Itec.zkclient.IZkChildListener;
 import org.I0Itec.zkclient.IZkDataListener;
 import org.I0Itec.zkclient.ZkClient;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ZookeeperTargetMonitor extends TargetMonitor implements IZkChildListener, IZkDataListener {
+    // thread safe and reusable, unlike building an ObjectMapper per event
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final long UNKNOWN_MZXID = -1;
+
     protected String zpathRoot;
 
+    // child name -> mzxid of the node when it was last read
+    private final Map<String, Long> knownChildren = new ConcurrentHashMap<String, Long>();
+
     public ZookeeperTargetMonitor(ServiceImpl service, JsDMSSpringClientProperties.TargetProperties properties, String gitRepoName) throws JSchException, IOException {
         super(service, properties, gitRepoName);
     }
@@ -22,26 +39,28 @@ public class ZookeeperTargetMonitor extends TargetMonitor implements IZkChildLis
     @Override
     public void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
         ServiceImpl service = this.service;
+        if(currentChilds == null)
+            return ;
         registerWatcherToChilds(parentPath, currentChilds);
 
         if(parentPath.equalsIgnoreCase(this.zpathRoot)) {
-            service.execute(() -> {
-                for (String child : currentChilds) {
-                    String cpath = parentPath + "/" + child;
-                    Object cdata = this.service.getZkClient().readData(cpath);
-                    onNodeDataChanged(cpath, cdata);
-                }
-            });
+            service.execute(() -> reconcileChildren(parentPath, currentChilds, true));
         }
     }
 
     @Override
     public void handleDataChange(String dataPath, Object data) throws Exception {
+        // the subscription delivered this change, so the next child change does not need to read the node again
+        ZooKeeper zooKeeper = service.getZooKeeper();
+        if(zooKeeper != null) {
+            readIfChanged(zooKeeper, new File(dataPath).getName(), dataPath, false);
+        }
         onNodeDataChanged(dataPath, data);
     }
 
     @Override
     public void handleDataDeleted(String dataPath) throws Exception {
+        onNodeDeleted(dataPath);
     }
 
     public void start(String zpath) {
@@ -51,31 +70,141 @@ public class ZookeeperTargetMonitor extends TargetMonitor implements IZkChildLis
 
         service.execute(() ->{
             zkClient.createPersistent(zpath, true);
-            registerWatcherToChilds(this.zpathRoot, zkClient.getChildren(this.zpathRoot));
+            List<String> children = zkClient.getChildren(this.zpathRoot);
+            registerWatcherToChilds(this.zpathRoot, children);
+            // remember where every existing node is, so the first child change reads only what is new
+            reconcileChildren(this.zpathRoot, children, false);
             zkClient.subscribeChildChanges(this.zpathRoot, this);
         });
     }
 
+    /**
+     * Subscribes to children seen for the first time and unsubscribes from removed ones.
+     */
     private void registerWatcherToChilds(String parentPath, List<String> childs) {
         ZkClient zkClient = service.getZkClient();
+        Set<String> currentChildren = new HashSet<String>(childs);
         for(String child : childs) {
-            String zpath = parentPath + "/" + child;
-            zkClient.subscribeDataChanges(zpath, this);
+            if(knownChildren.putIfAbsent(child, UNKNOWN_MZXID) == null) {
+                zkClient.subscribeDataChanges(parentPath + "/" + child, this);
+            }
+        }
+        for(String child : knownChildren.keySet()) {
+            if(!currentChildren.contains(child) && knownChildren.remove(child) != null) {
+                zkClient.unsubscribeDataChanges(parentPath + "/" + child, this);
+            }
         }
     }
 
-    private void onNodeDataChanged(String path, Object data) {
+    /**
+     * Reads the children that are new or whose mzxid moved since they were last read.
+     * Known children are checked with an async exists and only the changed ones are read with an async getData,
+     * all requests are pipelined on the session instead of one synchronous round trip per child.
+     * Nothing waits for the replies, the changed children are handed to the executor once all of them arrived.
+     *
+     * @param notify pass the data read to {@link #onNodeDataChanged}, otherwise only record the mzxids
+     */
+    private void reconcileChildren(String parentPath, List<String> children, boolean notify) {
+        ZooKeeper zooKeeper = service.getZooKeeper();
+        if(zooKeeper == null)
+            return ;
+        List<String> paths = new ArrayList<String>(children.size());
+        List<CompletableFuture<byte[]>> reads = new ArrayList<CompletableFuture<byte[]>>(children.size());
+        for(String child : children) {
+            String cpath = parentPath + "/" + child;
+            paths.add(cpath);
+            reads.add(readIfChanged(zooKeeper, child, cpath, notify));
+        }
+        if(!notify)
+            return ;
+        // completed on the ZooKeeper event thread, which must not run the handlers
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> service.execute(() -> {
+                    for(int i = 0; i < paths.size(); i++) {
+                        byte[] data = reads.get(i).getNow(null);
+                        if(data != null) {
+                            onNodeDataChanged(paths.get(i), data);
+                        }
+                    }
+                }))
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
+    }
+
+    /**
+     * @return future of the node data, or of null if the node is unchanged, gone or only its mzxid was wanted
+     */
+    private CompletableFuture<byte[]> readIfChanged(ZooKeeper zooKeeper, String child, String path, boolean readData) {
+        CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+        Long knownMzxid = knownChildren.get(child);
+        if(readData && (knownMzxid == null || knownMzxid == UNKNOWN_MZXID)) {
+            getData(zooKeeper, child, path, future);
+            return future;
+        }
+        zooKeeper.exists(path, false, (rc, p, ctx, stat) -> {
+            if(rc != KeeperException.Code.OK.intValue() || stat == null) {
+                future.complete(null);
+            }else if(!readData) {
+                knownChildren.replace(child, stat.getMzxid());
+                future.complete(null);
+            }else if(knownMzxid == stat.getMzxid()) {
+                future.complete(null);
+            }else{
+                getData(zooKeeper, child, path, future);
+            }
+        }, null);
+        return future;
+    }
+
+    private void getData(ZooKeeper zooKeeper, String child, String path, CompletableFuture<byte[]> future) {
+        zooKeeper.getData(path, false, (rc, p, ctx, data, stat) -> {
+            if(rc == KeeperException.Code.OK.intValue()) {
+                knownChildren.replace(child, stat.getMzxid());
+                future.complete(data);
+            }else{
+                future.complete(null);
+            }
+        }, null);
+    }
+
+    /**
+     * The status node of a branch is gone, its directory is removed after the grace period.
+     */
+    protected void onNodeDeleted(String path) {
+        service.requestBranchRemoval(this, new File(path).getName(), true);
+    }
+
+    protected void onNodeDataChanged(String path, Object data) {
         if(!(data instanceof byte[]))
             return ;
+        service.markBranchPresent(this, new File(path).getName());
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            Map<String, Object> jsonDoc = objectMapper.readValue((byte[])data, Map.class);
-            String before = (String)jsonDoc.get("before");
-            String after = (String)jsonDoc.get("after");
+            String before = null;
+            String after = null;
+            try (JsonParser parser = JSON_FACTORY.createParser((byte[])data)) {
+                if(parser.nextToken() != JsonToken.START_OBJECT)
+                    return ;
+                while(parser.nextToken() == JsonToken.FIELD_NAME && (before == null || after == null)) {
+                    String fieldName = parser.getCurrentName();
+                    JsonToken valueToken = parser.nextToken();
+                    if("before".equals(fieldName) && valueToken == JsonToken.VALUE_STRING) {
+                        before = parser.getText();
+                    }else if("after".equals(fieldName) && valueToken == JsonToken.VALUE_STRING) {
+                        after = parser.getText();
+                    }else{
+                        parser.skipChildren();
+                    }
+                }
+            }
 
             if(before != null && (after == null || !before.equalsIgnoreCase(after))) {
                 File fpath = new File(path);
                 String branchName = fpath.getName();
+                if(isSyncedTo(branchName, after))
+                    return ;
+                markNotified(branchName);
                 service.asyncPullBranch(this, branchName);
             }
         } catch (IOException e) {
@@ -15,13 +15,92 @@
  */
 package kr.jclab.jsdms.spring.client.service;
 
+import kr.jclab.jsdms.spring.client.event.ChangeEventOverflowStrategy;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEvent;
 import kr.jclab.jsdms.spring.client.event.RepositoryChangeHandler;
+import kr.jclab.jsdms.spring.client.event.RepositoryRemovalHandler;
+import org.reactivestreams.Publisher;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface JsDMSSpringClientService {
     File findRepoDirByName(String name);
     void addRepositoryChangeHandler(RepositoryChangeHandler handler);
     void removeRepositoryChangeHandler(RepositoryChangeHandler handler);
+
+    /**
+     * Registers a handler told about removed branch directories. Only called with eviction enabled,
+     * after every change handler returned from the earlier changes of the branch.
+     */
+    void addRepositoryRemovalHandler(RepositoryRemovalHandler handler);
+    void removeRepositoryRemovalHandler(RepositoryRemovalHandler handler);
     void forceTrigger(String name, String branchName);
+
+    /**
+     * Change events as a Reactive Streams publisher. Unlike handlers, subscribers are called on a delivery thread
+     * and only as far as they requested, so a slow subscriber does not hold back any sync.
+     * Up to bufferSize events are kept per subscription, beyond that the overflow strategy applies.
+     *
+     * The branch directory of an event of a snapshot target may be deleted once a newer commit was published,
+     * use {@link #acquireSnapshot(String, String)} to keep it.
+     *
+     * @param name target name, or null for every target
+     * @param branchName branch name, or null for every branch
+     */
+    Publisher<RepositoryChangeEvent> repositoryChanges(String name, String branchName, int bufferSize, ChangeEventOverflowStrategy overflowStrategy);
+
+    /**
+     * Pulls the branch like {@link #forceTrigger(String, String)}.
+     * Futures are completed on the sync thread of the target, chain heavy work with the *Async stages.
+     *
+     * @return the commit id the branch is synced to once a sync started after this call finished,
+     * failed with {@link java.util.concurrent.RejectedExecutionException} if the executor is full
+     * or {@link IllegalArgumentException} if the target is unknown
+     */
+    CompletableFuture<String> triggerSync(String name, String branchName);
+
+    /**
+     * @return completed when every deploy branch found by the first fetch of the target was synced once
+     */
+    CompletableFuture<Void> awaitInitialSync(String name);
+
+    /**
+     * @return the commit id of the first sync of the branch since startup
+     */
+    CompletableFuture<String> awaitInitialSync(String name, String branchName);
+
+    /**
+     * Takes a reference to the current snapshot of a branch of a target with publish-mode snapshot.
+     * The snapshot directory is not modified nor deleted until it is closed.
+     *
+     * @return the snapshot, or null if the target does not publish snapshots or none was published yet
+     */
+    RepositorySnapshot acquireSnapshot(String name, String branchName);
+
+    /**
+     * Opens a file of the synced branch from the object database. Works without a working tree, so also for bare targets.
+     *
+     * @throws java.io.FileNotFoundException if the target, the branch or the path does not exist, or the path is a directory
+     */
+    InputStream openFile(String name, String branchName, String path) throws IOException;
+
+    /**
+     * Reads a whole file of the synced branch from the object database.
+     *
+     * @throws java.io.FileNotFoundException if the target, the branch or the path does not exist, or the path is a directory
+     */
+    byte[] readFile(String name, String branchName, String path) throws IOException;
+
+    /**
+     * Lists a directory of the synced branch from the object database. "" or "/" is the root.
+     *
+     * @return entry names, sub directories with a trailing '/'
+     * @throws java.io.FileNotFoundException if the target, the branch or the path does not exist
+     * @throws java.nio.file.NotDirectoryException if the path is a file
+     */
+    List<String> listDirectory(String name, String branchName, String path) throws IOException;
 }
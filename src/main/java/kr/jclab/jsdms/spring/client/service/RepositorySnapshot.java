@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.jsdms.spring.client.service;
+
+import java.io.File;
+
+/**
+ * Immutable checkout of one commit of a branch.
+ *
+ * The directory is kept until every holder closed its snapshot, even if newer commits were published meanwhile.
+ */
+public interface RepositorySnapshot extends AutoCloseable {
+    File getDirectory();
+    String getCommitId();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,38 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BlobCacheTest {
+    private static ObjectId id(int n) {
+        return ObjectId.fromString(String.format("%040x", n));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        BlobCache blobCache = new BlobCache(10);
+        blobCache.put(id(1), new byte[4]);
+        blobCache.put(id(2), new byte[4]);
+        assertNotNull(blobCache.get(id(1)));
+
+        blobCache.put(id(3), new byte[4]);
+        assertNotNull(blobCache.get(id(1)));
+        assertNull(blobCache.get(id(2)));
+        assertNotNull(blobCache.get(id(3)));
+        assertEquals(8, blobCache.getSize());
+    }
+
+    @Test
+    public void skipsBlobsLargerThanTheCache() {
+        BlobCache blobCache = new BlobCache(10);
+        blobCache.put(id(1), new byte[4]);
+        blobCache.put(id(2), new byte[11]);
+        assertNull(blobCache.get(id(2)));
+        assertNotNull(blobCache.get(id(1)));
+        assertEquals(4, blobCache.getSize());
+    }
+}
@@ -0,0 +1,180 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BranchEvictorTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JsDMSSpringClientProperties.EvictionProperties properties = new JsDMSSpringClientProperties.EvictionProperties();
+    private final HandlerDispatcher handlerDispatcher = new HandlerDispatcher(2, 60000, SyncMetrics.NOOP);
+    private ServiceImpl service;
+    private TargetMonitor targetMonitor;
+    private BranchEvictor evictor;
+    private File branchDir;
+
+    @Before
+    public void setUp() throws Exception {
+        File originDir = temporaryFolder.newFolder("origin");
+        try (Git origin = Git.init().setDirectory(originDir).call()) {
+            FileUtils.writeStringToFile(new File(originDir, "a.txt"), "1", StandardCharsets.UTF_8);
+            origin.add().addFilepattern("a.txt").call();
+            origin.commit().setMessage("a.txt 1").call();
+            origin.branchCreate().setName("deploy-a").call();
+        }
+
+        JsDMSSpringClientProperties serviceProperties = new JsDMSSpringClientProperties();
+        serviceProperties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        service = new ServiceImpl(serviceProperties);
+        JsDMSSpringClientProperties.TargetProperties targetProperties = new JsDMSSpringClientProperties.TargetProperties();
+        targetProperties.setName("target");
+        targetProperties.setResourceDirectory(temporaryFolder.newFolder("resources").getAbsolutePath());
+        targetProperties.setGitUri(originDir.getAbsolutePath());
+        targetMonitor = new TargetMonitor(service, targetProperties, "origin");
+
+        Git.cloneRepository().setURI(originDir.getAbsolutePath()).setDirectory(targetMonitor.getResourceMasterDir()).call().close();
+        branchDir = targetMonitor.getBranchWorkDir("deploy-a");
+        try (Git branch = Git.cloneRepository().setURI(originDir.getAbsolutePath()).setDirectory(branchDir).setBranch("deploy-a").call()) {
+            targetMonitor.setSyncedCommit("deploy-a", branch.getRepository().resolve(Constants.HEAD));
+        }
+
+        properties.setGracePeriod(0);
+        evictor = new BranchEvictor(service, handlerDispatcher, properties);
+    }
+
+    @After
+    public void tearDown() {
+        evictor.stop();
+        handlerDispatcher.shutdown();
+        targetMonitor.close();
+        service.stop();
+    }
+
+    @Test
+    public void deletedBranchIsRemovedOnceHandlersReturned() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        handlerDispatcher.addHandler((targetName, branchName, dir) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CompletableFuture<File> removed = new CompletableFuture<File>();
+        evictor.addHandler((targetName, branchName, dir) -> removed.complete(dir));
+        handlerDispatcher.dispatch("target", "deploy-a", branchDir, null, null);
+
+        evictor.requestRemoval(targetMonitor, "deploy-a", true);
+        Thread.sleep(200);
+        assertTrue(branchDir.exists());
+        release.countDown();
+
+        assertEquals(branchDir, removed.get(10, TimeUnit.SECONDS));
+        assertFalse(branchDir.exists());
+        assertNull(targetMonitor.getSyncedCommit("deploy-a"));
+        assertTrue(targetMonitor.getSyncedBranches().isEmpty());
+        try (Git master = Git.open(targetMonitor.getResourceMasterDir())) {
+            assertNull(master.getRepository().exactRef(Constants.R_REMOTES + "origin/deploy-a"));
+            assertNotNull(master.getRepository().exactRef(Constants.R_REMOTES + "origin/master"));
+        }
+    }
+
+    @Test
+    public void removalIsCalledOffBySync() throws Exception {
+        properties.setGracePeriod(200);
+        evictor.requestRemoval(targetMonitor, "deploy-a", true);
+        evictor.keep(targetMonitor, "deploy-a");
+        Thread.sleep(600);
+
+        assertTrue(branchDir.exists());
+        assertNotNull(targetMonitor.getSyncedCommit("deploy-a"));
+    }
+
+    @Test
+    public void staleBranchIsRemembered() throws Exception {
+        properties.setStaleTime(1);
+        CompletableFuture<File> removed = new CompletableFuture<File>();
+        evictor.addHandler((targetName, branchName, dir) -> removed.complete(dir));
+        ObjectId syncedCommit = targetMonitor.getSyncedCommit("deploy-a");
+        Thread.sleep(10);
+
+        evictor.requestRemoval(targetMonitor, "deploy-a", false);
+        assertEquals(branchDir, removed.get(10, TimeUnit.SECONDS));
+        assertFalse(branchDir.exists());
+        assertTrue(targetMonitor.getSyncedBranches().isEmpty());
+        // not synced again until it moves
+        assertTrue(targetMonitor.isSyncedTo("deploy-a", syncedCommit.name()));
+        assertTrue(targetMonitor.isRemovedAt("deploy-a", syncedCommit));
+        try (Git master = Git.open(targetMonitor.getResourceMasterDir())) {
+            assertNotNull(master.getRepository().exactRef(Constants.R_REMOTES + "origin/deploy-a"));
+        }
+    }
+
+    @Test
+    public void usedBranchIsNotStale() throws Exception {
+        properties.setStaleTime(60000);
+        CompletableFuture<File> removed = new CompletableFuture<File>();
+        evictor.addHandler((targetName, branchName, dir) -> removed.complete(dir));
+        ObjectId syncedCommit = targetMonitor.getSyncedCommit("deploy-a");
+
+        evictor.requestRemoval(targetMonitor, "deploy-a", false);
+        Thread.sleep(300);
+        assertFalse(removed.isDone());
+        assertTrue(branchDir.exists());
+        assertEquals(syncedCommit, targetMonitor.getSyncedCommit("deploy-a"));
+
+        // a deleted branch goes even if it was used
+        evictor.requestRemoval(targetMonitor, "deploy-a", true);
+        assertEquals(branchDir, removed.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void droppedRemovalIsTriedAgain() throws Exception {
+        properties.setInterval(100);
+        JsDMSSpringClientProperties serviceProperties = new JsDMSSpringClientProperties();
+        serviceProperties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        AtomicInteger attempts = new AtomicInteger();
+        // the sync queue is full at the first attempt
+        ServiceImpl fullService = new ServiceImpl(serviceProperties) {
+            @Override
+            boolean execute(Runnable task, TargetMonitor targetMonitor) {
+                return attempts.incrementAndGet() > 1 && super.execute(task, targetMonitor);
+            }
+        };
+        BranchEvictor retryingEvictor = new BranchEvictor(fullService, handlerDispatcher, properties);
+        try {
+            CompletableFuture<File> removed = new CompletableFuture<File>();
+            retryingEvictor.addHandler((targetName, branchName, dir) -> removed.complete(dir));
+
+            retryingEvictor.requestRemoval(targetMonitor, "deploy-a", true);
+            assertEquals(branchDir, removed.get(10, TimeUnit.SECONDS));
+            assertEquals(2, attempts.get());
+        } finally {
+            retryingEvictor.stop();
+            fullService.stop();
+        }
+    }
+}
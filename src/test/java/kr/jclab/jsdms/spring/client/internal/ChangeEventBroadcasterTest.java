@@ -0,0 +1,138 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.event.ChangeEventOverflowStrategy;
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeEvent;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeEventBroadcasterTest {
+    private final ChangeEventBroadcaster broadcaster = new ChangeEventBroadcaster(Runnable::run);
+
+    private static RepositoryChangeEvent event(String branchName, String oldCommitId, String newCommitId, List<String> added, List<String> modified, List<String> deleted) {
+        return new RepositoryChangeEvent("target", branchName, null, oldCommitId, newCommitId, added, modified, deleted);
+    }
+
+    private static RepositoryChangeEvent event(String branchName, String oldCommitId, String newCommitId) {
+        return event(branchName, oldCommitId, newCommitId, Collections.emptyList(), Collections.singletonList("a.txt"), Collections.emptyList());
+    }
+
+    private RecordingSubscriber subscribe(String branchName, int bufferSize, ChangeEventOverflowStrategy overflowStrategy) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        broadcaster.publisher("target", branchName, bufferSize, overflowStrategy).subscribe(subscriber);
+        return subscriber;
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        RecordingSubscriber subscriber = subscribe(null, 4, ChangeEventOverflowStrategy.DROP);
+        broadcaster.publish(event("deploy-a", "1", "2"));
+        broadcaster.publish(event("deploy-a", "2", "3"));
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertEquals("2", subscriber.events.get(0).getNewCommitId());
+
+        subscriber.subscription.request(5);
+        assertEquals(2, subscriber.events.size());
+        broadcaster.publish(event("deploy-a", "3", "4"));
+        assertEquals(3, subscriber.events.size());
+    }
+
+    @Test
+    public void filtersByBranch() {
+        RecordingSubscriber subscriber = subscribe("deploy-b", 4, ChangeEventOverflowStrategy.DROP);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertFalse(broadcaster.hasSubscribers("target", "deploy-a"));
+        assertTrue(broadcaster.hasSubscribers("target", "deploy-b"));
+        broadcaster.publish(event("deploy-a", "1", "2"));
+        broadcaster.publish(event("deploy-b", "1", "2"));
+        assertEquals(1, subscriber.events.size());
+        assertEquals("deploy-b", subscriber.events.get(0).getBranchName());
+    }
+
+    @Test
+    public void dropsNewEventsWhenFull() {
+        RecordingSubscriber subscriber = subscribe(null, 1, ChangeEventOverflowStrategy.DROP);
+        broadcaster.publish(event("deploy-a", "1", "2"));
+        broadcaster.publish(event("deploy-a", "2", "3"));
+        subscriber.subscription.request(2);
+        assertEquals(1, subscriber.events.size());
+        assertEquals("2", subscriber.events.get(0).getNewCommitId());
+    }
+
+    @Test
+    public void mergesPendingEventsOfABranch() {
+        RecordingSubscriber subscriber = subscribe(null, 1, ChangeEventOverflowStrategy.LATEST);
+        broadcaster.publish(event("deploy-a", "1", "2", Arrays.asList("new.txt", "gone.txt"), Collections.singletonList("a.txt"), Collections.singletonList("b.txt")));
+        broadcaster.publish(event("deploy-a", "2", "3", Collections.singletonList("b.txt"), Collections.singletonList("new.txt"), Arrays.asList("gone.txt", "a.txt")));
+        subscriber.subscription.request(2);
+
+        assertEquals(1, subscriber.events.size());
+        RepositoryChangeEvent merged = subscriber.events.get(0);
+        assertEquals("1", merged.getOldCommitId());
+        assertEquals("3", merged.getNewCommitId());
+        assertEquals(Collections.singletonList("new.txt"), merged.getAddedPaths());
+        assertEquals(Collections.singletonList("b.txt"), merged.getModifiedPaths());
+        assertEquals(Collections.singletonList("a.txt"), merged.getDeletedPaths());
+    }
+
+    @Test
+    public void signalsErrorOnOverflow() {
+        RecordingSubscriber subscriber = subscribe(null, 1, ChangeEventOverflowStrategy.ERROR);
+        broadcaster.publish(event("deploy-a", "1", "2"));
+        broadcaster.publish(event("deploy-a", "2", "3"));
+        assertNotNull(subscriber.error);
+        assertTrue(subscriber.events.isEmpty());
+        assertFalse(broadcaster.hasSubscribers("target", "deploy-a"));
+    }
+
+    @Test
+    public void completesOnClose() {
+        RecordingSubscriber subscriber = subscribe(null, 4, ChangeEventOverflowStrategy.DROP);
+        broadcaster.publish(event("deploy-a", "1", "2"));
+        broadcaster.close();
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertTrue(subscriber.completed);
+    }
+
+    private static class RecordingSubscriber implements Subscriber<RepositoryChangeEvent> {
+        Subscription subscription;
+        final List<RepositoryChangeEvent> events = new ArrayList<RepositoryChangeEvent>();
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(RepositoryChangeEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+    }
+}
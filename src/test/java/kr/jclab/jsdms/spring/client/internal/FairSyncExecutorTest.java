@@ -0,0 +1,100 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FairSyncExecutorTest {
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private FairSyncExecutor executor;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        executor = new FairSyncExecutor(1, key -> "heavy".equals(key) ? 2 : 1, "urgent"::equals);
+        // the only worker waits until everything is queued
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(String flowKey, int count) {
+        for (int i = 0; i < count; i++) {
+            executor.execute(new OrderingExecutor.KeyedRunnable() {
+                @Override
+                public Object getKey() {
+                    return flowKey;
+                }
+
+                @Override
+                public void run() {
+                    order.add(flowKey);
+                }
+            });
+        }
+    }
+
+    private void runQueued() throws InterruptedException {
+        gate.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void servesFlowsByWeight() throws InterruptedException {
+        submit("heavy", 6);
+        submit("light", 6);
+
+        runQueued();
+
+        // while both flows have work the weight 2 flow gets two turns for each of the other
+        List<String> bothBusy = order.subList(0, 9);
+        assertEquals(6, Collections.frequency(bothBusy, "heavy"));
+        assertEquals(3, Collections.frequency(bothBusy, "light"));
+        assertEquals(12, order.size());
+    }
+
+    @Test
+    public void urgentFlowQueuedLastRunsFirst() throws InterruptedException {
+        submit("heavy", 3);
+        submit("light", 3);
+        submit("urgent", 1);
+
+        runQueued();
+
+        assertEquals("urgent", order.get(0));
+        assertEquals(7, order.size());
+    }
+
+    @Test
+    public void promotedFlowRunsFirst() throws InterruptedException {
+        submit("heavy", 3);
+        submit("light", 1);
+        executor.promote("light");
+
+        runQueued();
+
+        assertEquals("light", order.get(0));
+    }
+}
@@ -0,0 +1,87 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.event.RepositoryChangeHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HandlerDispatcherTest {
+    private final HandlerDispatcher dispatcher = new HandlerDispatcher(4, 60000, SyncMetrics.NOOP);
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void keepsOrderPerBranch() throws InterruptedException {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(50);
+        dispatcher.addHandler((targetName, branchName, branchDir) -> {
+            received.add(branchDir.getName());
+            done.countDown();
+        });
+        for (int i = 0; i < 50; i++)
+            dispatcher.dispatch("target", "deploy-a", new File(String.valueOf(i)), null, null);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++)
+            assertEquals(String.valueOf(i), received.get(i));
+    }
+
+    @Test
+    public void slowHandlerDoesNotBlockOthers() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastCalled = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        RepositoryChangeHandler slowHandler = (targetName, branchName, branchDir) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        dispatcher.addHandler(slowHandler);
+        dispatcher.addHandler((targetName, branchName, branchDir) -> fastCalled.countDown());
+
+        dispatcher.dispatch("target", "deploy-a", new File("a"), null, closed::countDown);
+
+        assertTrue(fastCalled.await(10, TimeUnit.SECONDS));
+        assertFalse(closed.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void removedHandlerCanBeCollected() throws Exception {
+        WeakReference<RepositoryChangeHandler> reference = addDispatchAndRemove();
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(reference.get());
+    }
+
+    private WeakReference<RepositoryChangeHandler> addDispatchAndRemove() throws Exception {
+        CountDownLatch called = new CountDownLatch(1);
+        RepositoryChangeHandler handler = (targetName, branchName, branchDir) -> called.countDown();
+        dispatcher.addHandler(handler);
+        dispatcher.dispatch("target", "deploy-a", new File("a"), null, null);
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        dispatcher.drain("target", "deploy-a").get(10, TimeUnit.SECONDS);
+        dispatcher.removeHandler(handler);
+        return new WeakReference<RepositoryChangeHandler>(handler);
+    }
+}
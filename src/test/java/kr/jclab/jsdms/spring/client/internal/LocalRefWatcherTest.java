@@ -0,0 +1,149 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocalRefWatcherTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File bareDir;
+    private Git work;
+    private RevCommit firstCommit;
+    private StubService service;
+    private TargetMonitor targetMonitor;
+    private LocalRefWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        bareDir = temporaryFolder.newFolder("origin.git");
+        Git.init().setBare(true).setDirectory(bareDir).call().close();
+        work = Git.init().setDirectory(temporaryFolder.newFolder("work")).call();
+        firstCommit = commit("1");
+        push("deploy-a");
+
+        JsDMSSpringClientProperties serviceProperties = new JsDMSSpringClientProperties();
+        serviceProperties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        service = new StubService(serviceProperties);
+        JsDMSSpringClientProperties.TargetProperties targetProperties = new JsDMSSpringClientProperties.TargetProperties();
+        targetProperties.setName("target");
+        targetProperties.setResourceDirectory(temporaryFolder.newFolder("resources").getAbsolutePath());
+        targetProperties.setGitUri(bareDir.getAbsolutePath());
+        targetMonitor = new TargetMonitor(service, targetProperties, "origin");
+        targetMonitor.setSyncedCommit("deploy-a", firstCommit);
+        watcher = new LocalRefWatcher(service);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+        work.close();
+        targetMonitor.close();
+        service.stop();
+    }
+
+    private void startWatching() {
+        watcher.add(targetMonitor);
+        targetMonitor.startInitialSync(Collections.<String>emptyList());
+    }
+
+    private RevCommit commit(String content) throws Exception {
+        FileUtils.writeStringToFile(new File(work.getRepository().getWorkTree(), "a.txt"), content, StandardCharsets.UTF_8);
+        work.add().addFilepattern("a.txt").call();
+        return work.commit().setMessage("a.txt " + content).call();
+    }
+
+    private void push(String branchName) throws Exception {
+        work.push().setRemote(bareDir.getAbsolutePath()).setRefSpecs(new RefSpec("HEAD:" + Constants.R_HEADS + branchName)).setForce(true).call();
+    }
+
+    @Test
+    public void pushIsPulled() throws Exception {
+        startWatching();
+        // synced already
+        assertNull(service.pulls.poll(200, TimeUnit.MILLISECONDS));
+
+        commit("2");
+        push("deploy-a");
+        assertEquals("deploy-a", service.pulls.poll(5, TimeUnit.SECONDS));
+
+        // not a deploy branch
+        commit("3");
+        push("feature-x");
+        assertNull(service.pulls.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void packedRefsRewriteIsPulled() throws Exception {
+        writePackedRefs(firstCommit);
+        Files.delete(new File(bareDir, Constants.R_HEADS + "deploy-a").toPath());
+        startWatching();
+        assertNull(service.pulls.poll(200, TimeUnit.MILLISECONDS));
+
+        // like git pack-refs on the server: the new packed-refs is renamed into place
+        RevCommit secondCommit = commit("2");
+        push("feature-x");
+        assertNull(service.pulls.poll(200, TimeUnit.MILLISECONDS));
+        writePackedRefs(secondCommit);
+        assertEquals("deploy-a", service.pulls.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deletedBranchIsRequestedForRemoval() throws Exception {
+        startWatching();
+        assertNull(service.removals.poll(200, TimeUnit.MILLISECONDS));
+
+        work.push().setRemote(bareDir.getAbsolutePath()).setRefSpecs(new RefSpec(":" + Constants.R_HEADS + "deploy-a")).call();
+        assertEquals("deploy-a", service.removals.poll(5, TimeUnit.SECONDS));
+    }
+
+    private void writePackedRefs(ObjectId deployA) throws Exception {
+        File packedRefs = new File(bareDir, Constants.PACKED_REFS);
+        File lockFile = new File(bareDir, Constants.PACKED_REFS + ".lock");
+        FileUtils.writeStringToFile(lockFile, "# pack-refs with: peeled fully-peeled sorted \n"
+                + deployA.name() + " " + Constants.R_HEADS + "deploy-a\n", StandardCharsets.UTF_8);
+        Files.move(lockFile.toPath(), packedRefs.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class StubService extends ServiceImpl {
+        final BlockingQueue<String> pulls = new LinkedBlockingQueue<String>();
+        final BlockingQueue<String> removals = new LinkedBlockingQueue<String>();
+
+        StubService(JsDMSSpringClientProperties properties) {
+            super(properties);
+        }
+
+        @Override
+        public void asyncPullBranch(TargetMonitor targetMonitor, String branchName) {
+            pulls.add(branchName);
+        }
+
+        @Override
+        void requestBranchRemoval(TargetMonitor targetMonitor, String branchName, boolean deleted) {
+            removals.add(branchName);
+        }
+    }
+}
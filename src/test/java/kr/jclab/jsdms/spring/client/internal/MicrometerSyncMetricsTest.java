@@ -0,0 +1,44 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class MicrometerSyncMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerSyncMetrics syncMetrics = new MicrometerSyncMetrics(registry);
+
+    @Test
+    public void recordsPhasesPerTargetAndBranch() {
+        syncMetrics.recordPhase("target", "deploy-a", "fetch", TimeUnit.MILLISECONDS.toNanos(20));
+        syncMetrics.recordPhase("target", "deploy-a", "fetch", TimeUnit.MILLISECONDS.toNanos(40));
+        syncMetrics.recordPhase("target", "deploy-b", "fetch", TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(2, registry.get("jsdms.sync.phase").tags("branch", "deploy-a", "phase", "fetch").timer().count());
+        assertEquals(60, registry.get("jsdms.sync.phase").tags("branch", "deploy-a").timer().totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(1, registry.get("jsdms.sync.phase").tags("branch", "deploy-b").timer().count());
+    }
+
+    @Test
+    public void countsReceivedObjectsAndBytes() {
+        syncMetrics.recordReceived("target", 3, 100);
+        syncMetrics.recordReceived("target", 0, 0);
+        syncMetrics.recordReceived("target", 2, 50);
+
+        assertEquals(5, registry.get("jsdms.fetch.received.objects").tags("target", "target").counter().count(), 0);
+        assertEquals(150, registry.get("jsdms.fetch.received.bytes").tags("target", "target").counter().count(), 0);
+    }
+
+    @Test
+    public void gaugesReadTheBoundSource() {
+        AtomicInteger queueDepth = new AtomicInteger(4);
+        syncMetrics.bindTarget("target", queueDepth::get);
+        System.gc();
+        queueDepth.set(7);
+        assertEquals(7, registry.get("jsdms.executor.queue.depth").tags("target", "target").gauge().value(), 0);
+    }
+}
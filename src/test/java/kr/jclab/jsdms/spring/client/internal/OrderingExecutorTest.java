@@ -0,0 +1,150 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderingExecutorTest {
+    private ExecutorService executorService;
+    private OrderingExecutor executor;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+        executor = new OrderingExecutor(executorService);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void keepsOrderPerKey() throws InterruptedException {
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            executor.execute(() -> {
+                results.add(value);
+                done.countDown();
+            }, "key");
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void keepsOrderWhileIdleQueuesAreDropped() throws InterruptedException {
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(10000);
+        for (int i = 0; i < 10000; i++) {
+            final int value = i;
+            executor.execute(() -> {
+                results.add(value);
+                done.countDown();
+            }, "key");
+            // let the queue run empty now and then, so submissions race with its removal
+            if (i % 10 == 0)
+                Thread.yield();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void coalescesPendingTasks() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger lastValue = new AtomicInteger(-1);
+
+        executor.executeCoalesced(() -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "target", "branch");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            executor.executeCoalesced(() -> {
+                runs.incrementAndGet();
+                lastValue.set(value);
+            }, "target", "branch");
+        }
+        release.countDown();
+
+        final CountDownLatch drained = new CountDownLatch(1);
+        executor.execute(drained::countDown, "target");
+        assertTrue(drained.await(10, TimeUnit.SECONDS));
+
+        assertEquals(2, runs.get());
+        assertEquals(99, lastValue.get());
+        assertEquals(99, executor.getMergedTaskCount());
+    }
+
+    @Test
+    public void reportsDiscardedTask() throws InterruptedException {
+        OrderingExecutor bounded = new OrderingExecutor(executorService, 1, OrderingExecutor.OverflowPolicy.DISCARD);
+        final CountDownLatch release = new CountDownLatch(1);
+        assertTrue(bounded.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "key"));
+        assertFalse(bounded.execute(() -> { }, "key"));
+        release.countDown();
+        assertEquals(1, bounded.getDroppedTaskCount());
+    }
+
+    @Test
+    public void mergeKeepsThePickedTask() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "target");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Runnable full = () -> results.add("full");
+        Runnable partial = () -> results.add("partial");
+        executor.executeCoalesced(full, "target", "branch", (pending, submitted) -> submitted);
+        executor.executeCoalesced(partial, "target", "branch", (pending, submitted) -> (pending == full) ? pending : submitted);
+        release.countDown();
+
+        final CountDownLatch drained = new CountDownLatch(1);
+        executor.execute(drained::countDown, "target");
+        assertTrue(drained.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("full"), results);
+    }
+}
@@ -0,0 +1,267 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeerBundleDistributorTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PeerBundleDistributor distributor;
+    private ServiceImpl service;
+    private TargetMonitor targetMonitor;
+    private Git origin;
+    private File leaderDir;
+    private File followerDir;
+
+    @Before
+    public void setUp() throws Exception {
+        JsDMSSpringClientProperties.PeerProperties properties = new JsDMSSpringClientProperties.PeerProperties();
+        properties.setHost("127.0.0.1");
+        properties.setRetainedBundles(1);
+        properties.setSecret("s3cret");
+        distributor = new PeerBundleDistributor(null, properties, SyncMetrics.NOOP);
+
+        origin = Git.init().setDirectory(temporaryFolder.newFolder("origin")).call();
+        commit("a.txt", "1");
+        leaderDir = clone("leader");
+        followerDir = clone("follower");
+    }
+
+    @After
+    public void tearDown() {
+        if (targetMonitor != null) {
+            targetMonitor.close();
+            service.stop();
+        }
+        distributor.stop();
+        origin.close();
+    }
+
+    private RevCommit commit(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(origin.getRepository().getWorkTree(), path), content, StandardCharsets.UTF_8);
+        origin.add().addFilepattern(path).call();
+        return origin.commit().setMessage(path + " " + content).call();
+    }
+
+    private File clone(String name) throws Exception {
+        File dir = new File(temporaryFolder.getRoot(), name);
+        Git.cloneRepository().setURI(origin.getRepository().getDirectory().getAbsolutePath()).setDirectory(dir).call().close();
+        return dir;
+    }
+
+    private String fetchIntoLeader() throws Exception {
+        Map<String, ObjectId> previousRefs = PeerBundleDistributor.readTrackingRefs(leaderDir);
+        try (Git leader = Git.open(leaderDir)) {
+            leader.fetch().call();
+        }
+        return distributor.writeBundle("repo/master", leaderDir, previousRefs);
+    }
+
+    @Test
+    public void followerGetsTheNewCommitsWithoutMovingItsTrackingRefs() throws Exception {
+        RevCommit newCommit = commit("a.txt", "2");
+        String url = fetchIntoLeader();
+        assertNotNull(url);
+
+        assertTrue(distributor.fetchBundle(url, followerDir));
+        try (Git follower = Git.open(followerDir)) {
+            assertEquals(newCommit, follower.getRepository().exactRef(PeerBundleDistributor.PEER_REFS + "master").getObjectId());
+            assertTrue(follower.getRepository().hasObject(newCommit));
+            assertEquals(newCommit.getParent(0), follower.getRepository().exactRef(Constants.R_REMOTES + "origin/master").getObjectId());
+        }
+    }
+
+    @Test
+    public void noBundleWhenNothingMoved() throws Exception {
+        assertNull(fetchIntoLeader());
+    }
+
+    @Test
+    public void followerWithoutPrerequisitesFallsBack() throws Exception {
+        commit("a.txt", "2");
+        String url = fetchIntoLeader();
+        File emptyDir = temporaryFolder.newFolder("empty");
+        Git.init().setDirectory(emptyDir).call().close();
+
+        assertFalse(distributor.fetchBundle(url, emptyDir));
+    }
+
+    @Test
+    public void replacedBundleIsNoLongerServed() throws Exception {
+        commit("a.txt", "2");
+        String oldUrl = fetchIntoLeader();
+        commit("a.txt", "3");
+        assertNotNull(fetchIntoLeader());
+
+        assertFalse(distributor.fetchBundle(oldUrl, followerDir));
+    }
+
+    @Test
+    public void peerRefsAreDeletedAfterTheTransfer() throws Exception {
+        RevCommit newCommit = commit("a.txt", "2");
+        assertTrue(distributor.fetchBundle(fetchIntoLeader(), followerDir));
+        try (Git follower = Git.open(followerDir)) {
+            follower.fetch().call();
+        }
+
+        PeerBundleDistributor.deletePeerRefs(followerDir);
+        try (Git follower = Git.open(followerDir)) {
+            assertNull(follower.getRepository().exactRef(PeerBundleDistributor.PEER_REFS + "master"));
+            assertEquals(newCommit, follower.getRepository().exactRef(Constants.R_REMOTES + "origin/master").getObjectId());
+        }
+    }
+
+    @Test
+    public void bundleIsOnlyServedWithTheSecret() throws Exception {
+        PeerBundleDistributor leader = newDistributor("s3cret");
+        PeerBundleDistributor intruder = newDistributor("guess");
+        PeerBundleDistributor follower = newDistributor("s3cret");
+        try {
+            commit("a.txt", "2");
+            Map<String, ObjectId> previousRefs = PeerBundleDistributor.readTrackingRefs(leaderDir);
+            try (Git git = Git.open(leaderDir)) {
+                git.fetch().call();
+            }
+            String url = leader.writeBundle("repo/master", leaderDir, previousRefs);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            try {
+                assertEquals(403, connection.getResponseCode());
+            } finally {
+                connection.disconnect();
+            }
+            assertFalse(intruder.fetchBundle(url, followerDir));
+            assertTrue(follower.fetchBundle(url, followerDir));
+        } finally {
+            leader.stop();
+            intruder.stop();
+            follower.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void doesNotStartWithoutSecret() throws Exception {
+        newDistributor(null);
+    }
+
+    @Test
+    public void leaderAdvertisesWhatItReceived() throws Exception {
+        List<String> advertised = new ArrayList<String>();
+        PeerBundleDistributor leader = newElectedDistributor(true, null, advertised);
+        try {
+            RevCommit newCommit = commit("a.txt", "2");
+            PeerBundleDistributor.Transfer transfer = leader.prepare(newTargetMonitor(), "master", leaderDir);
+            try (Git git = Git.open(leaderDir)) {
+                git.fetch().call();
+            }
+            transfer.completed();
+
+            assertEquals(1, advertised.size());
+            assertTrue(distributor.fetchBundle(advertised.get(0), followerDir));
+            try (Git follower = Git.open(followerDir)) {
+                assertTrue(follower.getRepository().hasObject(newCommit));
+            }
+        } finally {
+            leader.stop();
+        }
+    }
+
+    @Test
+    public void followerFetchesTheAdvertisedBundleThenDeletesThePeerRefs() throws Exception {
+        RevCommit newCommit = commit("a.txt", "2");
+        String url = fetchIntoLeader();
+        List<String> advertised = new ArrayList<String>();
+        PeerBundleDistributor follower = newElectedDistributor(false, url, advertised);
+        try {
+            PeerBundleDistributor.Transfer transfer = follower.prepare(newTargetMonitor(), "master", followerDir);
+            try (Git git = Git.open(followerDir)) {
+                assertEquals(newCommit, git.getRepository().exactRef(PeerBundleDistributor.PEER_REFS + "master").getObjectId());
+                git.fetch().call();
+            }
+            transfer.completed();
+
+            try (Git git = Git.open(followerDir)) {
+                assertNull(git.getRepository().exactRef(PeerBundleDistributor.PEER_REFS + "master"));
+                assertEquals(newCommit, git.getRepository().exactRef(Constants.R_REMOTES + "origin/master").getObjectId());
+            }
+            assertTrue(advertised.isEmpty());
+        } finally {
+            follower.stop();
+        }
+    }
+
+    private TargetMonitor newTargetMonitor() throws Exception {
+        JsDMSSpringClientProperties properties = new JsDMSSpringClientProperties();
+        properties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        service = new ServiceImpl(properties);
+        JsDMSSpringClientProperties.TargetProperties targetProperties = new JsDMSSpringClientProperties.TargetProperties();
+        targetProperties.setName("target");
+        targetProperties.setResourceDirectory(temporaryFolder.newFolder("resources").getAbsolutePath());
+        targetProperties.setGitUri(origin.getRepository().getDirectory().getAbsolutePath());
+        targetMonitor = new TargetMonitor(service, targetProperties, "repo");
+        return targetMonitor;
+    }
+
+    /**
+     * The leader decision and the advertisement are stubbed, the curator client is never started.
+     *
+     * @param advertisement what the follower reads as advertised
+     * @param advertised receives what the leader advertises
+     */
+    private PeerBundleDistributor newElectedDistributor(boolean leader, String advertisement, List<String> advertised) throws Exception {
+        JsDMSSpringClientProperties.PeerProperties properties = new JsDMSSpringClientProperties.PeerProperties();
+        properties.setHost("127.0.0.1");
+        properties.setSecret("s3cret");
+        CuratorFramework curatorFramework = CuratorFrameworkFactory.newClient("127.0.0.1:1", new RetryOneTime(1));
+        return new PeerBundleDistributor(curatorFramework, properties, SyncMetrics.NOOP) {
+            @Override
+            boolean isLeader(String repoName) {
+                return leader;
+            }
+
+            @Override
+            String readAdvertisement(String repoName, String branchName) {
+                return advertisement;
+            }
+
+            @Override
+            void advertise(String repoName, String branchName, String url) {
+                advertised.add(url);
+            }
+        };
+    }
+
+    private PeerBundleDistributor newDistributor(String secret) throws Exception {
+        JsDMSSpringClientProperties.PeerProperties properties = new JsDMSSpringClientProperties.PeerProperties();
+        properties.setHost("127.0.0.1");
+        properties.setSecret(secret);
+        return new PeerBundleDistributor(null, properties, SyncMetrics.NOOP);
+    }
+}
@@ -0,0 +1,145 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RefPollerTest {
+    private static final ObjectId COMMIT_A = ObjectId.fromString("1111111111111111111111111111111111111111");
+    private static final ObjectId COMMIT_B = ObjectId.fromString("2222222222222222222222222222222222222222");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JsDMSSpringClientProperties.PollingProperties properties = new JsDMSSpringClientProperties.PollingProperties();
+    private StubService service;
+    private TargetMonitor targetMonitor;
+    private RefPoller refPoller;
+
+    @Before
+    public void setUp() throws Exception {
+        JsDMSSpringClientProperties serviceProperties = new JsDMSSpringClientProperties();
+        serviceProperties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        service = new StubService(serviceProperties);
+        JsDMSSpringClientProperties.TargetProperties targetProperties = new JsDMSSpringClientProperties.TargetProperties();
+        targetProperties.setName("target");
+        targetProperties.setResourceDirectory(temporaryFolder.newFolder("resources").getAbsolutePath());
+        targetProperties.setGitUri(temporaryFolder.newFolder("origin").getAbsolutePath());
+        targetMonitor = new TargetMonitor(service, targetProperties, "origin");
+        targetMonitor.setSyncedCommit("deploy-a", COMMIT_A);
+        service.advertise("deploy-a", COMMIT_A);
+
+        properties.setMinInterval(50);
+        properties.setMaxInterval(400);
+        properties.setJitter(0);
+        refPoller = new RefPoller(service, properties);
+    }
+
+    @After
+    public void tearDown() {
+        refPoller.stop();
+        targetMonitor.close();
+        service.stop();
+    }
+
+    private void startPolling() {
+        refPoller.add(targetMonitor);
+        targetMonitor.startInitialSync(Collections.<String>emptyList());
+    }
+
+    @Test
+    public void backsOffWhileRefsDoNotMove() throws Exception {
+        startPolling();
+        long last = nextCheck();
+        long[] expected = {100, 200, 400, 400};
+        for (long interval : expected) {
+            long check = nextCheck();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(check - last);
+            assertTrue("interval " + elapsed + "ms, expected " + interval + "ms", elapsed >= interval - 10 && elapsed < interval + 250);
+            last = check;
+        }
+        assertNull(service.pulls.poll());
+    }
+
+    @Test
+    public void movedRefTriggersPullAndResetsInterval() throws Exception {
+        startPolling();
+        for (int i = 0; i < 4; i++)
+            nextCheck();
+        assertNull(service.pulls.poll());
+
+        // backed off to max-interval by now
+        service.advertise("deploy-a", COMMIT_B);
+        long moved = nextCheck();
+        assertEquals("deploy-a", service.pulls.poll(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(nextCheck() - moved);
+        assertTrue("interval " + elapsed + "ms", elapsed < 200);
+    }
+
+    @Test
+    public void missingBranchIsRequestedForRemoval() throws Exception {
+        service.refs.clear();
+        startPolling();
+        assertEquals("deploy-a", service.removals.poll(5, TimeUnit.SECONDS));
+    }
+
+    private long nextCheck() throws InterruptedException {
+        Long check = service.checks.poll(5, TimeUnit.SECONDS);
+        assertNotNull(check);
+        return check;
+    }
+
+    private static class StubService extends ServiceImpl {
+        final Map<String, Ref> refs = Collections.synchronizedMap(new HashMap<String, Ref>());
+        final BlockingQueue<Long> checks = new LinkedBlockingQueue<Long>();
+        final BlockingQueue<String> pulls = new LinkedBlockingQueue<String>();
+        final BlockingQueue<String> removals = new LinkedBlockingQueue<String>();
+
+        StubService(JsDMSSpringClientProperties properties) {
+            super(properties);
+        }
+
+        void advertise(String branchName, ObjectId objectId) {
+            String refName = Constants.R_HEADS + branchName;
+            refs.put(refName, new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, refName, objectId));
+        }
+
+        @Override
+        Map<String, Ref> lsRemote(TargetMonitor targetMonitor) {
+            checks.add(System.nanoTime());
+            synchronized (refs) {
+                return new HashMap<String, Ref>(refs);
+            }
+        }
+
+        @Override
+        public void asyncPullBranch(TargetMonitor targetMonitor, String branchName) {
+            pulls.add(branchName);
+        }
+
+        @Override
+        void requestBranchRemoval(TargetMonitor targetMonitor, String branchName, boolean deleted) {
+            removals.add(branchName);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryMaintenanceTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JsDMSSpringClientProperties.MaintenanceProperties properties = new JsDMSSpringClientProperties.MaintenanceProperties();
+    private final List<Long> reclaimed = new ArrayList<Long>();
+    private File repositoryDir;
+
+    @Before
+    public void setUp() throws Exception {
+        repositoryDir = temporaryFolder.newFolder("master");
+        try (Git git = Git.init().setDirectory(repositoryDir).call()) {
+            for (int i = 0; i < 20; i++) {
+                FileUtils.writeStringToFile(new File(repositoryDir, "a.txt"), "line\n" + i, StandardCharsets.UTF_8, true);
+                git.add().addFilepattern("a.txt").call();
+                git.commit().setMessage("commit " + i).call();
+            }
+        }
+    }
+
+    private RepositoryMaintenance maintenance() {
+        return new RepositoryMaintenance(null, properties, new SyncMetrics() {
+            @Override
+            public void recordMaintenance(String targetName, String branchName, long nanos, long reclaimedBytes) {
+                reclaimed.add(reclaimedBytes);
+            }
+        });
+    }
+
+    @Test
+    public void collectsRepositoryOverThreshold() throws Exception {
+        properties.setLooseObjects(10);
+        assertTrue(maintenance().maintain("target", "master", repositoryDir));
+
+        assertEquals(1, reclaimed.size());
+        assertTrue(reclaimed.get(0) > 0);
+        try (Git git = Git.open(repositoryDir)) {
+            Properties statistics = git.gc().getStatistics();
+            assertEquals(0L, ((Number) statistics.get("numberOfLooseObjects")).longValue());
+            assertEquals(1L, ((Number) statistics.get("numberOfPackFiles")).longValue());
+        }
+    }
+
+    @Test
+    public void leavesRepositoryUnderThresholds() {
+        assertFalse(maintenance().maintain("target", "master", repositoryDir));
+        assertTrue(reclaimed.isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.JsDMSSpringClientProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceImplTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final CountDownLatch queued = new CountDownLatch(1);
+    private ServiceImpl service;
+    private TargetMonitor targetMonitor;
+
+    @Before
+    public void setUp() throws Exception {
+        JsDMSSpringClientProperties properties = new JsDMSSpringClientProperties();
+        properties.setTargets(new ArrayList<JsDMSSpringClientProperties.TargetProperties>());
+        properties.getExecutor().setRetryDelay(50);
+        // the sync queue is full for the first two attempts
+        service = new ServiceImpl(properties) {
+            @Override
+            boolean queuePull(TargetMonitor targetMonitor, String branchName, boolean urgent, Runnable onDropped) {
+                if (attempts.incrementAndGet() <= 2)
+                    return false;
+                queued.countDown();
+                return true;
+            }
+        };
+        JsDMSSpringClientProperties.TargetProperties targetProperties = new JsDMSSpringClientProperties.TargetProperties();
+        targetProperties.setName("target");
+        targetProperties.setResourceDirectory(temporaryFolder.newFolder("resources").getAbsolutePath());
+        targetProperties.setGitUri(temporaryFolder.newFolder("origin").getAbsolutePath());
+        targetMonitor = new TargetMonitor(service, targetProperties, "origin");
+    }
+
+    @After
+    public void tearDown() {
+        targetMonitor.close();
+        service.stop();
+    }
+
+    @Test
+    public void droppedNoticedPullIsQueuedAgain() throws Exception {
+        service.asyncPullBranch(targetMonitor, "deploy-a");
+        assertTrue(queued.await(10, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+}
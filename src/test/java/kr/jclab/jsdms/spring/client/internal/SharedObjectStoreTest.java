@@ -0,0 +1,110 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedObjectStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Git origin;
+    private File masterDir;
+    private RevCommit deployCommit;
+
+    @Before
+    public void setUp() throws Exception {
+        origin = Git.init().setDirectory(temporaryFolder.newFolder("origin")).call();
+        commit("a.txt", "master");
+        origin.branchCreate().setName("deploy-a").call();
+        origin.checkout().setName("deploy-a").call();
+        deployCommit = commit("a.txt", "deploy");
+        origin.checkout().setName("master").call();
+
+        masterDir = new File(temporaryFolder.getRoot(), "master");
+        Git.cloneRepository()
+                .setURI(origin.getRepository().getDirectory().getAbsolutePath())
+                .setDirectory(masterDir)
+                .setBranch("master")
+                .call()
+                .close();
+    }
+
+    @After
+    public void tearDown() {
+        origin.close();
+    }
+
+    private RevCommit commit(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(origin.getRepository().getWorkTree(), path), content, StandardCharsets.UTF_8);
+        origin.add().addFilepattern(path).call();
+        return origin.commit().setMessage(path + " " + content).call();
+    }
+
+    /**
+     * @return loose objects and pack files the repository holds itself
+     */
+    private static List<String> ownObjects(File objectsDir) {
+        List<String> objects = new ArrayList<String>();
+        for (File file : FileUtils.listFiles(objectsDir, null, true)) {
+            String path = objectsDir.toPath().relativize(file.toPath()).toString();
+            if (!path.startsWith("info"))
+                objects.add(path);
+        }
+        return objects;
+    }
+
+    @Test
+    public void branchCheckedOutWithoutObjectsOfItsOwn() throws Exception {
+        File branchDir = new File(temporaryFolder.getRoot(), "deploy-a");
+        SharedObjectStore.createLinkedRepository(masterDir, branchDir);
+
+        try (Git masterGit = Git.open(masterDir);
+             Git branchGit = Git.open(branchDir)) {
+            ObjectId tracked = SharedObjectStore.updateTrackingRef(masterGit.getRepository(), branchGit.getRepository(), "deploy-a");
+            assertEquals(deployCommit, tracked);
+
+            branchGit.checkout()
+                    .setCreateBranch(true)
+                    .setName("deploy-a")
+                    .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                    .setStartPoint("origin/deploy-a")
+                    .call();
+            branchGit.reset().setMode(ResetCommand.ResetType.HARD).setRef("origin/deploy-a").call();
+
+            assertEquals(deployCommit, branchGit.getRepository().resolve(Constants.HEAD));
+            assertEquals("deploy", FileUtils.readFileToString(new File(branchDir, "a.txt"), StandardCharsets.UTF_8));
+            assertTrue(ownObjects(new File(branchGit.getRepository().getDirectory(), Constants.OBJECTS)).isEmpty());
+        }
+    }
+
+    @Test
+    public void unknownBranchIsNotTracked() throws Exception {
+        File branchDir = new File(temporaryFolder.getRoot(), "deploy-b");
+        SharedObjectStore.createLinkedRepository(masterDir, branchDir);
+
+        try (Git masterGit = Git.open(masterDir);
+             Git branchGit = Git.open(branchDir)) {
+            assertNull(SharedObjectStore.updateTrackingRef(masterGit.getRepository(), branchGit.getRepository(), "deploy-b"));
+            assertNull(branchGit.getRepository().exactRef(Constants.R_REMOTES + "origin/deploy-b"));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import kr.jclab.jsdms.spring.client.service.RepositorySnapshot;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotPublisherTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SnapshotPublisher publisher;
+    private Git git;
+    private RevCommit commitA;
+    private RevCommit commitB;
+
+    @Before
+    public void setUp() throws Exception {
+        publisher = new SnapshotPublisher(temporaryFolder.newFolder("repo"));
+        File workTree = temporaryFolder.newFolder("work");
+        git = Git.init().setDirectory(workTree).call();
+        commitA = commit(workTree, "A");
+        commitB = commit(workTree, "B");
+    }
+
+    @After
+    public void tearDown() {
+        git.close();
+    }
+
+    private RevCommit commit(File workTree, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(workTree, "a.txt"), content, StandardCharsets.UTF_8);
+        git.add().addFilepattern("a.txt").call();
+        return git.commit().setMessage(content).call();
+    }
+
+    private static String read(File directory) throws Exception {
+        return FileUtils.readFileToString(new File(directory, "a.txt"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rollbackWhileReaderHoldsTheOldSnapshot() throws Exception {
+        publisher.publish("a", git.getRepository(), commitA).close();
+        RepositorySnapshot reader = publisher.acquire("a");
+        publisher.publish("a", git.getRepository(), commitB).close();
+        publisher.publish("a", git.getRepository(), commitA).close();
+
+        RepositorySnapshot current = publisher.acquire("a");
+        assertNotEquals(reader.getDirectory(), current.getDirectory());
+        assertEquals(commitA.name(), current.getCommitId());
+        reader.close();
+
+        assertFalse(reader.getDirectory().exists());
+        assertEquals("A", read(current.getDirectory()));
+        assertEquals("A", read(new File(temporaryFolder.getRoot(), "repo/a")));
+        current.close();
+    }
+
+    @Test
+    public void republishAfterRemoveKeepsHeldSnapshot() throws Exception {
+        publisher.publish("a", git.getRepository(), commitA).close();
+        RepositorySnapshot reader = publisher.acquire("a");
+        publisher.remove("a");
+        publisher.publish("a", git.getRepository(), commitA).close();
+
+        assertTrue(reader.getDirectory().exists());
+        assertEquals("A", read(reader.getDirectory()));
+        reader.close();
+        assertFalse(reader.getDirectory().exists());
+        assertEquals("A", read(new File(temporaryFolder.getRoot(), "repo/a")));
+    }
+
+    @Test
+    public void secondCloseDoesNotReleaseAnotherReader() throws Exception {
+        publisher.publish("a", git.getRepository(), commitA).close();
+        RepositorySnapshot first = publisher.acquire("a");
+        RepositorySnapshot second = publisher.acquire("a");
+        publisher.publish("a", git.getRepository(), commitB).close();
+
+        first.close();
+        first.close();
+        assertTrue(second.getDirectory().exists());
+        assertEquals("A", read(second.getDirectory()));
+        second.close();
+        assertFalse(second.getDirectory().exists());
+    }
+
+    @Test(timeout = 10000)
+    public void acquireAfterReadersReleasedEverything() throws Exception {
+        RepositorySnapshot published = publisher.publish("a", git.getRepository(), commitA);
+        published.close();
+        published.close();
+        RepositorySnapshot reader = publisher.acquire("a");
+        reader.close();
+        reader.close();
+
+        // the current reference is still held
+        RepositorySnapshot current = publisher.acquire("a");
+        assertEquals(commitA.name(), current.getCommitId());
+        assertEquals("A", read(current.getDirectory()));
+        current.close();
+
+        publisher.remove("a");
+        assertNull(publisher.acquire("a"));
+        assertFalse(current.getDirectory().exists());
+    }
+}
@@ -0,0 +1,126 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SshKeySshSessionFactoryTest {
+    private final List<Session> connected = new ArrayList<Session>();
+    private SshKeySshSessionFactory factory;
+    private URIish uri;
+
+    @Before
+    public void setUp() throws Exception {
+        // sessions are marked connected instead of connecting to a host
+        factory = new SshKeySshSessionFactory(new JSch()) {
+            @Override
+            Session connect(URIish uri, int tms) throws JSchException {
+                Session session = new JSch().getSession(uri.getUser(), uri.getHost());
+                setConnected(session);
+                connected.add(session);
+                return session;
+            }
+        };
+        factory.setSessionPool(60000);
+        uri = new URIish("ssh://git@example.com/repo.git");
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+    }
+
+    private static void setConnected(Session session) {
+        try {
+            Field field = Session.class.getDeclaredField("isConnected");
+            field.setAccessible(true);
+            field.setBoolean(session, true);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RemoteSession borrow() throws Exception {
+        return factory.getSession(uri, null, null, 0);
+    }
+
+    @Test
+    public void reusesReleasedSession() throws Exception {
+        borrow().disconnect();
+        borrow().disconnect();
+
+        assertEquals(1, connected.size());
+        assertEquals(1, factory.getSessionPoolMissCount());
+        assertEquals(1, factory.getSessionPoolHitCount());
+        assertTrue(connected.get(0).isConnected());
+    }
+
+    @Test
+    public void sharesSessionInUse() throws Exception {
+        RemoteSession first = borrow();
+        RemoteSession second = borrow();
+
+        assertEquals(1, connected.size());
+        first.disconnect();
+        assertTrue(connected.get(0).isConnected());
+        second.disconnect();
+        assertTrue(connected.get(0).isConnected());
+    }
+
+    @Test
+    public void evictsIdleSession() throws Exception {
+        factory.setSessionPool(50);
+        borrow().disconnect();
+        Thread.sleep(100);
+
+        factory.evictIdleSessions();
+
+        assertFalse(connected.get(0).isConnected());
+        borrow().disconnect();
+        assertEquals(2, connected.size());
+        assertEquals(2, factory.getSessionPoolMissCount());
+        assertEquals(0, factory.getSessionPoolHitCount());
+    }
+
+    @Test
+    public void keepsSessionInUseOnEviction() throws Exception {
+        factory.setSessionPool(50);
+        RemoteSession session = borrow();
+        Thread.sleep(100);
+
+        factory.evictIdleSessions();
+
+        assertTrue(connected.get(0).isConnected());
+        session.disconnect();
+    }
+
+    @Test
+    public void replacesDisconnectedSession() throws Exception {
+        RemoteSession first = borrow();
+        // dropped by the host while borrowed
+        connected.get(0).disconnect();
+
+        borrow().disconnect();
+
+        assertEquals(2, connected.size());
+        assertEquals(2, factory.getSessionPoolMissCount());
+        assertTrue(connected.get(1).isConnected());
+        first.disconnect();
+        borrow().disconnect();
+        assertEquals(2, connected.size());
+        assertEquals(1, factory.getSessionPoolHitCount());
+    }
+}
@@ -0,0 +1,42 @@
+package kr.jclab.jsdms.spring.client.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncStateStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void survivesRestart() throws Exception {
+        File stateFile = new File(temporaryFolder.getRoot(), "state.json");
+        SyncStateStore syncStateStore = new SyncStateStore(stateFile);
+        assertFalse(syncStateStore.isLoaded());
+        syncStateStore.markSynced("deploy-a", "5cbf4b18901775fa21a7f41cfafe7880930b419e");
+        syncStateStore.markSyncing("deploy-b");
+
+        SyncStateStore reloaded = new SyncStateStore(stateFile);
+        assertTrue(reloaded.isLoaded());
+        assertEquals("5cbf4b18901775fa21a7f41cfafe7880930b419e", reloaded.getBranch("deploy-a").getSyncedCommit());
+        assertTrue(reloaded.getBranch("deploy-a").isClean());
+        assertNull(reloaded.getBranch("deploy-b"));
+    }
+
+    @Test
+    public void interruptedSyncIsNotClean() throws Exception {
+        File stateFile = new File(temporaryFolder.getRoot(), "state.json");
+        SyncStateStore syncStateStore = new SyncStateStore(stateFile);
+        syncStateStore.markSynced("deploy-a", "5cbf4b18901775fa21a7f41cfafe7880930b419e");
+        syncStateStore.markSyncing("deploy-a");
+
+        assertFalse(new SyncStateStore(stateFile).getBranch("deploy-a").isClean());
+    }
+}